@@ -41,6 +41,8 @@ import android.widget.Toast;
 
 import com.dodola.bubblecloud.BubbleCloudView;
 import com.dodola.bubblecloud.utils.FileManagerImageLoader;
+import com.dodola.bubblecloud.utils.IconPrefetcher;
+import com.dodola.bubblecloud.utils.PauseOnScrollListener;
 import com.pkmmte.view.CircularImageView;
 
 import java.util.ArrayList;
@@ -63,6 +65,8 @@ public class TestActivity extends Activity {
 
         mListView = (BubbleCloudView) findViewById(R.id.my_list);
         mListView.setAdapter(adapter);
+        mListView.setOnScrollListener(new PauseOnScrollListener(FileManagerImageLoader.getInstance()));
+        mListView.setOnPrefetchListener(new IconPrefetcher(FileManagerImageLoader.getInstance()));
 
         mListView.setOnItemClickListener(new OnItemClickListener() {
             public void onItemClick(final AdapterView<?> parent, final View view,
@@ -98,7 +102,8 @@ public class TestActivity extends Activity {
                 view = LayoutInflater.from(getContext()).inflate(R.layout.list_item, null);
             }
             final CircularImageView itemRound = (CircularImageView) view.findViewById(R.id.item_round);
-            FileManagerImageLoader.getInstance().addTask(getItem(position), itemRound, null, 48, 48, false);
+            final int priority = ((BubbleCloudView<?>) parent).getLoadPriority(position);
+            FileManagerImageLoader.getInstance().addTask(getItem(position), itemRound, null, 48, 48, false, priority);
             return view;
         }
     }
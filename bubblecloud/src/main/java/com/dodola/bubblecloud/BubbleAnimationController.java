@@ -0,0 +1,157 @@
+package com.dodola.bubblecloud;
+
+import com.dodola.bubblecloud.utils.FrameScheduler;
+
+/**
+ * Drives every animation of a {@link BubbleCloudView} from a single frame callback.
+ * <p/>
+ * The enter animation, the fling and item moves advance together on the same frame time
+ * and the view is notified once per frame, however many of them are running. Starting an
+ * animation that is already running restarts it instead of stacking a second one.
+ */
+class BubbleAnimationController implements FrameScheduler.Callback {
+
+    interface Listener {
+        /**
+         * @param scrolled true if the fling moved the scroll offset in this frame
+         */
+        void onAnimationFrame(boolean scrolled);
+    }
+
+    private static final long ENTER_DURATION_NANOS = 1000 * 1000000L;
+    private static final long MOVE_DURATION_NANOS = 300 * 1000000L;
+    private static final long UNSET = -1;
+
+    private final FrameScheduler mScheduler = new FrameScheduler(this);
+    private final BubbleScroller mScroller = new BubbleScroller();
+    private final Listener mListener;
+
+    private boolean mEntering;
+    private long mEnterStartNanos = UNSET;
+    private float mEnterFraction = 1;
+    private boolean mMoving;
+    private long mMoveStartNanos = UNSET;
+    private float mMoveFraction = 1;
+
+    BubbleAnimationController(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Starts the enter animation. Its clock starts on the next frame.
+     */
+    void startEnter() {
+        mEntering = true;
+        mEnterStartNanos = UNSET;
+        mEnterFraction = 0;
+        mScheduler.postFrame();
+    }
+
+    /**
+     * Starts moving items to their new lattice slots. Its clock starts on the next frame.
+     */
+    void startMove() {
+        mMoving = true;
+        mMoveStartNanos = UNSET;
+        mMoveFraction = 0;
+        mScheduler.postFrame();
+    }
+
+    void fling(float startX, float startY, float velocityX, float velocityY, float rangeX, float rangeY) {
+        mScroller.setRange(rangeX, rangeY);
+        mScroller.fling(startX, startY, velocityX, velocityY, System.nanoTime());
+        mScheduler.postFrame();
+    }
+
+    /**
+     * Starts a fling that settles with the scroll offset exactly on {@code (targetX, targetY)}.
+     */
+    void flingTo(float startX, float startY, float targetX, float targetY) {
+        mScroller.flingTo(startX, startY, targetX, targetY, System.nanoTime());
+        mScheduler.postFrame();
+    }
+
+    /**
+     * Stops the fling and jumps the enter animation and item moves to their end state.
+     *
+     * @return true if the enter animation or an item move was still running
+     */
+    boolean cancel() {
+        mScheduler.cancel();
+        mScroller.abort();
+        final boolean cut = mEntering || mMoving;
+        mEntering = false;
+        mEnterFraction = 1;
+        mMoving = false;
+        mMoveFraction = 1;
+        return cut;
+    }
+
+    boolean isRunning() {
+        return mEntering || mMoving || !mScroller.isFinished();
+    }
+
+    /**
+     * @return progress of the enter animation, eased like the default
+     * {@code ValueAnimator} interpolator, 1 when it is not running
+     */
+    float getEnterFraction() {
+        return mEnterFraction;
+    }
+
+    /**
+     * @return progress of the item move, decelerating, 1 when it is not running
+     */
+    float getMoveFraction() {
+        return mMoveFraction;
+    }
+
+    float getScrollX() {
+        return mScroller.getX();
+    }
+
+    float getScrollY() {
+        return mScroller.getY();
+    }
+
+    float getScrollVelocityX() {
+        return mScroller.getVelocityX();
+    }
+
+    float getScrollVelocityY() {
+        return mScroller.getVelocityY();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mEntering) {
+            if (mEnterStartNanos == UNSET) {
+                mEnterStartNanos = frameTimeNanos;
+            }
+            final float t = Math.min(1f, (float) (frameTimeNanos - mEnterStartNanos) / ENTER_DURATION_NANOS);
+            mEnterFraction = (float) (Math.cos((t + 1) * Math.PI) / 2 + 0.5f);
+            if (t >= 1) {
+                mEntering = false;
+                mEnterFraction = 1;
+            }
+        }
+        if (mMoving) {
+            if (mMoveStartNanos == UNSET) {
+                mMoveStartNanos = frameTimeNanos;
+            }
+            final float t = Math.min(1f, (float) (frameTimeNanos - mMoveStartNanos) / MOVE_DURATION_NANOS);
+            mMoveFraction = 1 - (1 - t) * (1 - t);
+            if (t >= 1) {
+                mMoving = false;
+            }
+        }
+        final boolean scrolled = !mScroller.isFinished();
+        if (scrolled) {
+            mScroller.step(frameTimeNanos);
+        }
+        mListener.onAnimationFrame(scrolled);
+        if (isRunning()) {
+            mScheduler.postFrame();
+        }
+    }
+}
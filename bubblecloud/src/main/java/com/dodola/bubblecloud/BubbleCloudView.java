@@ -1,16 +1,26 @@
 package com.dodola.bubblecloud;
 
-import android.animation.ValueAnimator;
 import android.content.Context;
-import android.graphics.Rect;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.database.DataSetObserver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.support.v4.util.LongSparseArray;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.VelocityTracker;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.widget.Adapter;
 import android.widget.AdapterView;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 
 /**
@@ -18,6 +28,56 @@ import java.util.Arrays;
  */
 public class BubbleCloudView<T extends Adapter> extends AdapterView<T> {
 
+    /**
+     * The cloud is not moving.
+     */
+    public static final int SCROLL_STATE_IDLE = 0;
+    /**
+     * The cloud is following a finger, or a pinch.
+     */
+    public static final int SCROLL_STATE_DRAGGING = 1;
+    /**
+     * The cloud is moving on its own, after a fling or to spring back.
+     */
+    public static final int SCROLL_STATE_SETTLING = 2;
+
+    /**
+     * Receives the scroll state of a {@link BubbleCloudView}, for instance to pause image
+     * loading while the cloud moves fast.
+     */
+    public interface OnScrollListener {
+        /**
+         * @param scrollState one of {@link #SCROLL_STATE_IDLE}, {@link #SCROLL_STATE_DRAGGING}
+         *                    or {@link #SCROLL_STATE_SETTLING}
+         */
+        void onScrollStateChanged(BubbleCloudView<?> view, int scrollState);
+
+        /**
+         * Called for every drag event and fling frame that moved the cloud.
+         *
+         * @param velocityX current horizontal velocity, in pixels per second
+         * @param velocityY current vertical velocity, in pixels per second
+         */
+        void onScroll(BubbleCloudView<?> view, float velocityX, float velocityY);
+    }
+
+    /**
+     * Receives the positions whose content should be loaded next, for instance to queue
+     * icon decodes before {@link Adapter#getView} asks for them.
+     */
+    public interface OnPrefetchListener {
+        /**
+         * Called after layout and scroll frames with the positions that came into view, or
+         * are about to in the direction of motion, and were not reported since they last
+         * did. Positions with a bound view are left out, {@link Adapter#getView} loads
+         * their content. Visible positions come first, ordered from the center outwards.
+         *
+         * @param positions positions by priority, only the first {@code count} are valid and
+         *                  the array is reused after the call returns
+         */
+        void onPrefetch(BubbleCloudView<?> view, int[] positions, int count);
+    }
+
     private T mAdapter;
 
     private int lastX;
@@ -34,27 +94,123 @@ public class BubbleCloudView<T extends Adapter> extends AdapterView<T> {
     private static final int TOUCH_STATE_RESTING = 0;
     private static final int TOUCH_STATE_CLICK = 1;
     private static final int TOUCH_STATE_SCROLL = 2;
+    private static final int TOUCH_STATE_ZOOM = 3;
     private static final int INVALID_INDEX = -1;
     private static final int TOUCH_SCROLL_THRESHOLD = 10;
-
-    private Rect mRect;
+    private static final int DEFAULT_MAX_HARDWARE_LAYERS = 24;
+    private static final int DEFAULT_PLACEHOLDER_COLOR = 0xFFDDDDDD;
+    private static final float SQRT3_2 = (float) (Math.sqrt(3) / 2);
+    /**
+     * Axial distance around the rounded cell searched for a snap target inside the range.
+     */
+    private static final int SNAP_SEARCH_RADIUS = 2;
+    private static final int MIN_SCROLL_RANGE_X = 30;
+    private static final int MIN_SCROLL_RANGE_Y = 10;
+    private static final float DEFAULT_MIN_ZOOM = 0.5f;
+    private static final float DEFAULT_MAX_ZOOM = 2f;
+
+    private final BubbleHitGrid mHitGrid = new BubbleHitGrid();
+    private boolean mHitGridDirty = true;
     private int screenW;
     private int screenH;
     private int centerW;
     private int centerH;
-    private ArrayList<Integer[]> hexCube;
-    private ArrayList<XY> hexCubeOrtho = new ArrayList<>();
-    private ArrayList<Rrad> hexCubePolar = new ArrayList<>();
-    private ArrayList<Rdr> hexCubeSphere = new ArrayList<>();
+    private int[] hexCube;
+    private int hexCellCount;
+    private BubbleLayoutEngine layoutEngine;
+    private final BubbleRecycleBin mRecycler = new BubbleRecycleBin();
+    private View[] mActiveViews = new View[0];
+    /**
+     * Item id and view type each active view was bound with, by position.
+     */
+    private long[] mActiveIds = new long[0];
+    private int[] mActiveTypes = new int[0];
+    private final LongSparseArray<Integer> mPositionsById = new LongSparseArray<Integer>();
+    private final DataSetObserver mDataSetObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            handleDataChanged(false);
+        }
+
+        @Override
+        public void onInvalidated() {
+            handleDataChanged(true);
+        }
+    };
+    private boolean mUseLookupTable;
+    private boolean mUseHardwareLayers;
+    private int mMaxHardwareLayers;
+    private int mHardwareLayerCount;
+    private int[] mLayerPositions = new int[0];
+    private boolean mInMotion;
+    private boolean mSnapToCenter;
+    private final int[] mSnapCube = new int[3];
+    private ScaleGestureDetector mScaleDetector;
+    private boolean mZoomEnabled;
+    private float mZoom = 1;
+    // scroll offset at zoom 1, kept as a float so repeated pinch steps do not drift
+    private float mZoomAnchorX;
+    private float mZoomAnchorY;
+    private int mZoomedScrollX;
+    private int mZoomedScrollY;
+    private float mMinZoom = DEFAULT_MIN_ZOOM;
+    private float mMaxZoom = DEFAULT_MAX_ZOOM;
+    private int mScrollState = SCROLL_STATE_IDLE;
+    private OnScrollListener mOnScrollListener;
+    private OnPrefetchListener mOnPrefetchListener;
+    private final BubblePrefetchPlanner mPrefetchPlanner = new BubblePrefetchPlanner();
+    private float mVelocityX;
+    private float mVelocityY;
     private int sphereR;
+    private boolean sphereRFixed;
     private int hexR;
     private int itemSize;
     private int edgeSize;
     private float animAlpha = 1;
-    int scrollRangeX = 30;
-    int scrollRangeY = 10;
+    private float mMoveFraction = 1;
+    /**
+     * Previous position of every item during an item move, -1 for items that appeared.
+     */
+    private int[] mMoveFrom = new int[0];
+    private float mapHexR;
+    int scrollRangeX = MIN_SCROLL_RANGE_X;
+    int scrollRangeY = MIN_SCROLL_RANGE_Y;
+    /**
+     * Ring count {@link #scrollRangeX} and {@link #scrollRangeY} were computed for, -1 when
+     * they have to be recomputed.
+     */
+    private int mScrollRangeRings = -1;
+    private final BubbleAnimationController mAnimator = new BubbleAnimationController(
+            new BubbleAnimationController.Listener() {
+                @Override
+                public void onAnimationFrame(boolean scrolled) {
+                    applyAnimationFrame(scrolled);
+                }
+            });
+    private VelocityTracker mVelocityTracker;
+    private BubbleTrace.Listener mTraceListener;
+    private BubbleSource mBubbleSource;
+    private final Paint mBubblePaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+    private final Paint mPlaceholderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    /**
+     * Alpha of the placeholder color, combined with the enter animation on every frame.
+     */
+    private int mPlaceholderAlpha = Color.alpha(DEFAULT_PLACEHOLDER_COLOR);
+    private final Matrix mShaderMatrix = new Matrix();
+    /**
+     * One shader per position and level, at {@code position * mShaderSlots + level}, so a
+     * bubble switching levels while it grows or shrinks reuses the shader of each level.
+     */
+    private Bitmap[] mShaderBitmaps = new Bitmap[0];
+    private BitmapShader[] mShaders = new BitmapShader[0];
+    private int mShaderSlots = 1;
+    private int mMaximumFlingVelocity;
 
     private void startTouch(final MotionEvent event) {
+        stopAnimations();
+        setScrollState(SCROLL_STATE_IDLE);
+        mVelocityX = 0;
+        mVelocityY = 0;
         lastX = (int) event.getX();
         lastY = (int) event.getY();
         deltaX = 0;
@@ -67,65 +223,123 @@ public class BubbleCloudView<T extends Adapter> extends AdapterView<T> {
     }
 
     private void endTouch() {
-        int veloX = deltaX;
-        int veloY = deltaY;
-        final int distanceX = veloX * 10;
-        final int distanceY = veloY * 10;
-
-        ValueAnimator endAnim = ValueAnimator.ofFloat(0, 1);
-        endAnim.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-
-                scrollMoveX = scrollX;
-                scrollMoveY = scrollY;
-                int steps = 16;
-                int step = (int) (steps * animation.getAnimatedFraction());
-
-                int inertiaX = (int) (easeOutCubic
-                        (step, 0, distanceX, steps) - easeOutCubic((step - 1), 0, distanceX, steps));
-                int inertiaY = (int) (easeOutCubic
-                        (step, 0, distanceY, steps) - easeOutCubic((step - 1), 0, distanceY, steps));
-
-                scrollX += inertiaX;
-                scrollY += inertiaY;
-
-                if (scrollX > scrollRangeX) {
-                    scrollX -= (scrollX - scrollRangeX) / 4;
-                } else if (scrollX < -scrollRangeX) {
-                    scrollX -= (scrollX + scrollRangeX) / 4;
-                }
+        if (mTouchState == TOUCH_STATE_RESTING) {
+            return;
+        }
+        float velocityX = 0;
+        float velocityY = 0;
+        if (mTouchState == TOUCH_STATE_SCROLL && mVelocityTracker != null) {
+            mVelocityTracker.computeCurrentVelocity(1000, mMaximumFlingVelocity);
+            velocityX = mVelocityTracker.getXVelocity();
+            velocityY = mVelocityTracker.getYVelocity();
+        }
+        if (mSnapToCenter && zoomedHexR() > 0) {
+            snapFling(velocityX, velocityY);
+        } else {
+            mAnimator.fling(scrollX, scrollY, velocityX, velocityY, scrollRangeX, scrollRangeY);
+        }
+        if (mScrollState == SCROLL_STATE_DRAGGING) {
+            setScrollState(SCROLL_STATE_SETTLING);
+        }
+
+        mTouchState = TOUCH_STATE_RESTING;
+    }
 
-                if (scrollY > scrollRangeY) {
-                    scrollY -= (scrollY - scrollRangeY) / 4;
-                } else if (scrollY < -scrollRangeY) {
-                    scrollY -= (scrollY + scrollRangeY) / 4;
+    /**
+     * Flings towards the cell nearest to where the fling would stop within the scroll range,
+     * and settles with that cell centered. The cell is found by rounding the offset in
+     * axial coordinates. When the rounded cell lies outside the scroll range, the nearest
+     * cell inside it is taken instead, so the next drag does not start out rubber-banding.
+     */
+    private void snapFling(float velocityX, float velocityY) {
+        final float endX = Math.max(-scrollRangeX, Math.min(scrollRangeX,
+                BubbleScroller.predictEnd(scrollX, velocityX)));
+        final float endY = Math.max(-scrollRangeY, Math.min(scrollRangeY,
+                BubbleScroller.predictEnd(scrollY, velocityY)));
+        // the cell centered by an offset is the one at minus that offset on the lattice
+        final float cellR = zoomedHexR();
+        final float q = -endY / cellR / SQRT3_2;
+        final float r = -endX / cellR - q / 2;
+        HexGrid.round(q, r, mSnapCube);
+        // the range is symmetric, so the center cell is always a valid fallback
+        float targetX = 0;
+        float targetY = 0;
+        float best = Float.MAX_VALUE;
+        for (int dq = -SNAP_SEARCH_RADIUS; dq <= SNAP_SEARCH_RADIUS; dq++) {
+            for (int dr = -SNAP_SEARCH_RADIUS; dr <= SNAP_SEARCH_RADIUS; dr++) {
+                final int cellQ = mSnapCube[0] + dq;
+                final int cellRow = mSnapCube[1] + dr;
+                final float x = -(cellRow + cellQ / 2f) * cellR;
+                final float y = -SQRT3_2 * cellQ * cellR;
+                if (Math.abs(x) > scrollRangeX || Math.abs(y) > scrollRangeY) {
+                    continue;
+                }
+                final float distance = (x - endX) * (x - endX) + (y - endY) * (y - endY);
+                if (distance < best) {
+                    best = distance;
+                    targetX = x;
+                    targetY = y;
                 }
-                iconMapRefresh(sphereR, hexR, scrollX, scrollY);
-                requestLayout();
+            }
+        }
+        mAnimator.flingTo(scrollX, scrollY, targetX, targetY);
+    }
 
+    /**
+     * Applies the state of every running animation with a single projection and
+     * update pass.
+     */
+    private void applyAnimationFrame(boolean scrolled) {
+        if (scrolled) {
+            scrollX = Math.round(mAnimator.getScrollX());
+            scrollY = Math.round(mAnimator.getScrollY());
+            scrollMoveX = scrollX;
+            scrollMoveY = scrollY;
+        }
+        mVelocityX = mAnimator.getScrollVelocityX();
+        mVelocityY = mAnimator.getScrollVelocityY();
+        final float enter = mAnimator.getEnterFraction();
+        animAlpha = enter;
+        mMoveFraction = mAnimator.getMoveFraction();
+        layoutEngine.setMoveFraction(mMoveFraction);
+        final float cellR = zoomedHexR();
+        iconMapRefresh(sphereR, easeOutCubic(enter * 36, cellR * 2, -cellR, 36f), scrollX, scrollY);
+        updateBubbles();
+        if (scrolled && mOnScrollListener != null) {
+            mOnScrollListener.onScroll(this, mVelocityX, mVelocityY);
+        }
+        if (!mAnimator.isRunning() && mTouchState != TOUCH_STATE_SCROLL) {
+            endMotion();
+            if (mScrollState == SCROLL_STATE_SETTLING) {
+                setScrollState(SCROLL_STATE_IDLE);
             }
-        });
-        endAnim.setDuration(300);
-        endAnim.start();
+        }
+    }
 
-        mTouchState = TOUCH_STATE_RESTING;
+    /**
+     * Cancels the running animations. An interrupted enter animation or item move is
+     * snapped to its end state so the cloud is not left half way.
+     */
+    private void stopAnimations() {
+        if (mAnimator.cancel()) {
+            applyAnimationFrame(false);
+        }
     }
 
 
     public BubbleCloudView(Context context) {
         super(context);
-        init();
+        init(null, 0);
     }
 
     public BubbleCloudView(Context context, AttributeSet attrs) {
         super(context, attrs);
-        init();
+        init(attrs, 0);
     }
 
     public BubbleCloudView(Context context, AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
-        init();
+        init(attrs, defStyleAttr);
     }
 
     @Override
@@ -135,9 +349,214 @@ public class BubbleCloudView<T extends Adapter> extends AdapterView<T> {
 
     @Override
     public void setAdapter(T adapter) {
+        if (mAdapter != null) {
+            mAdapter.unregisterDataSetObserver(mDataSetObserver);
+        }
         mAdapter = adapter;
+        mBubbleSource = null;
+        releaseHardwareLayers();
+        removeAllViewsInLayout();
+        mRecycler.clear();
+        final int count;
+        if (mAdapter != null) {
+            mAdapter.registerDataSetObserver(mDataSetObserver);
+            mRecycler.setViewTypeCount(mAdapter.getViewTypeCount());
+            count = mAdapter.getCount();
+        } else {
+            count = 0;
+        }
+        mActiveViews = new View[count];
+        mActiveIds = new long[count];
+        mActiveTypes = new int[count];
+        mPrefetchPlanner.reset();
+        requestLayout();
+    }
+
+    /**
+     * Matches the bound views to the new data set. With stable ids a view stays bound to its
+     * item, wherever that item moved, and only views of removed items are recycled; the
+     * bubbles that are still unbound get a view in the next layout pass. Without stable ids,
+     * or when the data set was invalidated, every view goes to the recycle bin and is
+     * rebound from there instead of being inflated again.
+     */
+    private void handleDataChanged(boolean invalidated) {
+        if (mAdapter == null) {
+            return;
+        }
+        final int count = mAdapter.getCount();
+        final View[] oldViews = mActiveViews;
+        final long[] oldIds = mActiveIds;
+        final int[] oldTypes = mActiveTypes;
+        final View[] newViews = new View[count];
+        final long[] newIds = new long[count];
+        final int[] newTypes = new int[count];
+
+        if (mMoveFrom.length < count) {
+            mMoveFrom = new int[count];
+        }
+        final int[] moveFrom = mMoveFrom;
+        Arrays.fill(moveFrom, 0, count, INVALID_INDEX);
+        boolean animate = false;
+
+        if (!invalidated && mAdapter.hasStableIds()) {
+            // items that kept their position keep their view without a lookup
+            final LongSparseArray<Integer> moved = mPositionsById;
+            for (int position = 0; position < oldViews.length; position++) {
+                if (oldViews[position] == null) {
+                    continue;
+                }
+                if (position < count && oldIds[position] == mAdapter.getItemId(position)
+                        && oldTypes[position] == mAdapter.getItemViewType(position)) {
+                    newViews[position] = oldViews[position];
+                    newIds[position] = oldIds[position];
+                    newTypes[position] = oldTypes[position];
+                    moveFrom[position] = position;
+                } else {
+                    moved.put(oldIds[position], position);
+                }
+            }
+            for (int position = 0; position < count && moved.size() > 0; position++) {
+                if (newViews[position] != null) {
+                    continue;
+                }
+                final long id = mAdapter.getItemId(position);
+                final Integer oldPosition = moved.get(id);
+                if (oldPosition != null && oldTypes[oldPosition] == mAdapter.getItemViewType(position)) {
+                    newViews[position] = oldViews[oldPosition];
+                    newIds[position] = id;
+                    newTypes[position] = oldTypes[oldPosition];
+                    moveFrom[position] = oldPosition;
+                    moved.remove(id);
+                    animate = true;
+                }
+            }
+            animate |= moved.size() > 0 || count > oldViews.length;
+            for (int i = 0; i < moved.size(); i++) {
+                final int oldPosition = moved.valueAt(i);
+                recycleView(oldViews[oldPosition], oldTypes[oldPosition]);
+            }
+            moved.clear();
+            // the ids only decide which views survive, their content may still have changed
+            for (int position = 0; position < count; position++) {
+                final View view = newViews[position];
+                if (view == null) {
+                    continue;
+                }
+                final View bound = mAdapter.getView(position, view, this);
+                if (bound != view) {
+                    recycleView(view, newTypes[position]);
+                    addAndMeasureChild(bound);
+                    layoutChild(bound);
+                    newViews[position] = bound;
+                }
+            }
+        } else {
+            for (int position = 0; position < oldViews.length; position++) {
+                if (oldViews[position] != null) {
+                    recycleView(oldViews[position], oldTypes[position]);
+                }
+            }
+        }
+
+        mActiveViews = newViews;
+        mActiveIds = newIds;
+        mActiveTypes = newTypes;
+        mHitGridDirty = true;
+        mPrefetchPlanner.reset();
+        if (animate) {
+            startItemMove(count);
+        }
+        requestLayout();
+    }
+
+    /**
+     * Animates every bound item from its previous lattice slot to its new one, while the
+     * items that appeared fade in. All of them are advanced by the shared animation
+     * frame, through the same projection as a scroll frame.
+     */
+    private void startItemMove(int count) {
+        ensureHexCells(count);
+        layoutEngine.startMove(mMoveFrom, count);
+        mMoveFraction = 0;
+        iconMapRefresh(sphereR, mapHexR, scrollX, scrollY);
+        beginMotion();
+        mAnimator.startMove();
+    }
+
+    private void recycleView(View child, int viewType) {
+        releaseHardwareLayer(child);
+        removeViewInLayout(child);
+        mRecycler.addScrapView(child, viewType);
+    }
+
+    /**
+     * Switches to lightweight mode: instead of binding child views from the adapter, every
+     * bubble is drawn from {@code source} as a bitmap clipped to a circle, in a single
+     * {@link #onDraw(Canvas)} pass with a shared paint. Item clicks report a null view
+     * and the position as id. Passing null leaves the cloud empty until an adapter is set.
+     */
+    public void setBubbleSource(BubbleSource source) {
+        if (mAdapter != null) {
+            mAdapter.unregisterDataSetObserver(mDataSetObserver);
+        }
+        mAdapter = null;
+        releaseHardwareLayers();
         removeAllViewsInLayout();
+        mRecycler.clear();
+        mActiveViews = new View[0];
+        mActiveIds = new long[0];
+        mActiveTypes = new int[0];
+        mBubbleSource = source;
+        mPrefetchPlanner.reset();
+        clearShaders();
+        setWillNotDraw(source == null);
         requestLayout();
+        invalidate();
+    }
+
+    public BubbleSource getBubbleSource() {
+        return mBubbleSource;
+    }
+
+    /**
+     * Redraws the bubbles of the {@link BubbleSource}, after its count or bitmaps changed.
+     */
+    public void notifyBubblesChanged() {
+        if (mBubbleSource != null) {
+            mPrefetchPlanner.reset();
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    public void setPlaceholderColor(int color) {
+        mPlaceholderPaint.setColor(color);
+        mPlaceholderAlpha = Color.alpha(color);
+        invalidate();
+    }
+
+    private void clearShaders() {
+        mShaderBitmaps = new Bitmap[0];
+        mShaders = new BitmapShader[0];
+        mShaderSlots = 1;
+    }
+
+    private void ensureShaderCapacity(int count, int slots) {
+        if (slots > mShaderSlots) {
+            // only happens when the source first reports more levels, the shaders are rebuilt
+            mShaderSlots = slots;
+            mShaderBitmaps = new Bitmap[0];
+            mShaders = new BitmapShader[0];
+        }
+        if (mShaders.length < count * mShaderSlots) {
+            final int length = count * mShaderSlots;
+            final Bitmap[] bitmaps = new Bitmap[length];
+            final BitmapShader[] shaders = new BitmapShader[length];
+            System.arraycopy(mShaderBitmaps, 0, bitmaps, 0, mShaderBitmaps.length);
+            System.arraycopy(mShaders, 0, shaders, 0, mShaders.length);
+            mShaderBitmaps = bitmaps;
+            mShaders = shaders;
+        }
     }
 
     @Override
@@ -151,15 +570,309 @@ public class BubbleCloudView<T extends Adapter> extends AdapterView<T> {
         
     }
 
+    /**
+     * Projects bubbles through a precomputed {@link FisheyeTable} instead of evaluating the
+     * sphere curves for every bubble on every frame. The table is built when the view is
+     * attached to a window.
+     */
+    public void setUseLookupTable(boolean useLookupTable) {
+        mUseLookupTable = useLookupTable;
+        if (!useLookupTable) {
+            layoutEngine.setProjectionTable(null);
+        } else if (getWindowToken() != null) {
+            buildLookupTable();
+        }
+    }
+
+    public boolean isUsingLookupTable() {
+        return mUseLookupTable;
+    }
+
+    private void buildLookupTable() {
+        if (layoutEngine.getProjectionTable() == null) {
+            layoutEngine.setProjectionTable(new FisheyeTable());
+        }
+    }
+
+    /**
+     * Reports projection, layout and positioning timings to {@code listener}, or stops
+     * tracing when it is null.
+     */
+    public void setTraceListener(BubbleTrace.Listener listener) {
+        mTraceListener = listener;
+    }
+
+    /**
+     * Ends every fling with the nearest bubble centered in the view.
+     */
+    public void setSnapToCenter(boolean snapToCenter) {
+        mSnapToCenter = snapToCenter;
+    }
+
+    public boolean isSnapToCenter() {
+        return mSnapToCenter;
+    }
+
+    public void setOnScrollListener(OnScrollListener listener) {
+        mOnScrollListener = listener;
+    }
+
+    public void setOnPrefetchListener(OnPrefetchListener listener) {
+        mOnPrefetchListener = listener;
+        mPrefetchPlanner.reset();
+    }
+
+    /**
+     * @return one of {@link #SCROLL_STATE_IDLE}, {@link #SCROLL_STATE_DRAGGING} or
+     * {@link #SCROLL_STATE_SETTLING}
+     */
+    public int getScrollState() {
+        return mScrollState;
+    }
+
+    /**
+     * Priority for loading the content of the bubble at {@code position}, lower values are
+     * needed sooner. It is the squared distance of the bubble from the center of the view,
+     * in pixels, so loads queued by it run center first.
+     */
+    public int getLoadPriority(int position) {
+        if (layoutEngine == null || position < 0 || position >= layoutEngine.getCount()) {
+            return Integer.MAX_VALUE - 1;
+        }
+        final float x = layoutEngine.x[position];
+        final float y = layoutEngine.y[position];
+        return (int) Math.min(x * x + y * y, Integer.MAX_VALUE - 1);
+    }
+
+    private void setScrollState(int scrollState) {
+        if (mScrollState == scrollState) {
+            return;
+        }
+        mScrollState = scrollState;
+        if (mOnScrollListener != null) {
+            mOnScrollListener.onScrollStateChanged(this, scrollState);
+        }
+    }
+
+    /**
+     * Lets a pinch gesture zoom the cloud between {@link #setZoomRange(float, float)}.
+     */
+    public void setZoomEnabled(boolean zoomEnabled) {
+        mZoomEnabled = zoomEnabled;
+        if (zoomEnabled && mScaleDetector == null) {
+            mScaleDetector = new ScaleGestureDetector(getContext(), new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                @Override
+                public boolean onScaleBegin(ScaleGestureDetector detector) {
+                    stopAnimations();
+                    mTouchState = TOUCH_STATE_ZOOM;
+                    beginMotion();
+                    setScrollState(SCROLL_STATE_DRAGGING);
+                    return true;
+                }
+
+                @Override
+                public boolean onScale(ScaleGestureDetector detector) {
+                    setZoom(mZoom * detector.getScaleFactor());
+                    return true;
+                }
+            });
+        }
+    }
+
+    public boolean isZoomEnabled() {
+        return mZoomEnabled;
+    }
+
+    public void setZoomRange(float minZoom, float maxZoom) {
+        if (minZoom <= 0 || maxZoom < minZoom) {
+            throw new IllegalArgumentException("invalid zoom range " + minZoom + ".." + maxZoom);
+        }
+        mMinZoom = minZoom;
+        mMaxZoom = maxZoom;
+        setZoom(mZoom);
+    }
+
+    /**
+     * Scales the lattice spacing and the bubbles by {@code zoom}, clamped to the zoom range,
+     * around the center of the view. The sphere keeps its radius, so a zoom frame costs the
+     * same projection pass as a scroll frame and reuses its buffers.
+     */
+    public void setZoom(float zoom) {
+        zoom = Math.max(mMinZoom, Math.min(mMaxZoom, zoom));
+        if (zoom == mZoom) {
+            return;
+        }
+        if (scrollX != mZoomedScrollX || scrollY != mZoomedScrollY) {
+            // the cloud was scrolled since the last zoom step, take a new anchor
+            mZoomAnchorX = scrollX / mZoom;
+            mZoomAnchorY = scrollY / mZoom;
+        }
+        mZoom = zoom;
+        scrollX = Math.round(mZoomAnchorX * zoom);
+        scrollY = Math.round(mZoomAnchorY * zoom);
+        mZoomedScrollX = scrollX;
+        mZoomedScrollY = scrollY;
+        scrollMoveX = scrollX;
+        scrollMoveY = scrollY;
+        layoutEngine.setItemScale(zoom);
+        mScrollRangeRings = -1;
+        updateScrollRange(getItemCount());
+        iconMapRefresh(sphereR, zoomedHexR(), scrollX, scrollY);
+        updateBubbles();
+    }
+
+    public float getZoom() {
+        return mZoom;
+    }
+
+    private float zoomedHexR() {
+        return hexR * mZoom;
+    }
+
+    private int getItemCount() {
+        if (mBubbleSource != null) {
+            return mBubbleSource.getCount();
+        }
+        return mAdapter != null ? mAdapter.getCount() : 0;
+    }
+
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent event) {
+        if (mZoomEnabled) {
+            mScaleDetector.onTouchEvent(event);
+        }
+        if (mVelocityTracker == null) {
+            mVelocityTracker = VelocityTracker.obtain();
+        }
+        mVelocityTracker.addMovement(event);
+        final boolean handled = super.dispatchTouchEvent(event);
+        final int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+        return handled;
+    }
+
+    /**
+     * Promotes bubbles to hardware layers while the cloud scrolls or animates, so that
+     * only their transform and alpha are redrawn on each frame. Bubbles go back to
+     * regular rendering as soon as the cloud is idle.
+     */
+    public void setUseHardwareLayers(boolean useHardwareLayers) {
+        mUseHardwareLayers = useHardwareLayers;
+        if (!useHardwareLayers) {
+            releaseHardwareLayers();
+        }
+    }
+
+    public boolean isUsingHardwareLayers() {
+        return mUseHardwareLayers;
+    }
+
+    /**
+     * Caps the number of bubbles that hold a hardware layer at the same time. When a motion
+     * starts the layers go to the bound bubbles with the largest projected scale, which are
+     * the ones closest to the center of the view; bubbles bound during the motion take the
+     * layers that are left.
+     */
+    public void setMaxHardwareLayers(int maxHardwareLayers) {
+        mMaxHardwareLayers = Math.max(0, maxHardwareLayers);
+    }
+
+    private void beginMotion() {
+        if (mInMotion) {
+            return;
+        }
+        mInMotion = true;
+        if (!mUseHardwareLayers || !isHardwareAccelerated()) {
+            return;
+        }
+        final int count = selectLargestBubbles(mMaxHardwareLayers);
+        for (int i = 0; i < count; i++) {
+            acquireHardwareLayer(mActiveViews[mLayerPositions[i]]);
+        }
+    }
+
+    /**
+     * Collects the positions of the {@code limit} bound bubbles with the largest scale into
+     * {@link #mLayerPositions}, largest first.
+     *
+     * @return number of positions collected
+     */
+    private int selectLargestBubbles(int limit) {
+        if (mLayerPositions.length < limit) {
+            mLayerPositions = new int[limit];
+        }
+        final int[] positions = mLayerPositions;
+        final float[] scale = layoutEngine.scale;
+        final View[] activeViews = mActiveViews;
+        int selected = 0;
+        for (int position = 0; position < activeViews.length && limit > 0; position++) {
+            if (activeViews[position] == null) {
+                continue;
+            }
+            final float s = scale[position];
+            if (selected == limit && s <= scale[positions[limit - 1]]) {
+                continue;
+            }
+            int i = selected < limit ? selected++ : limit - 1;
+            while (i > 0 && scale[positions[i - 1]] < s) {
+                positions[i] = positions[i - 1];
+                i--;
+            }
+            positions[i] = position;
+        }
+        return selected;
+    }
+
+    private void endMotion() {
+        if (!mInMotion) {
+            return;
+        }
+        mInMotion = false;
+        releaseHardwareLayers();
+    }
+
+    private void acquireHardwareLayer(View child) {
+        if (mHardwareLayerCount < mMaxHardwareLayers && child.getLayerType() != LAYER_TYPE_HARDWARE) {
+            child.setLayerType(LAYER_TYPE_HARDWARE, null);
+            mHardwareLayerCount++;
+        }
+    }
+
+    private void releaseHardwareLayer(View child) {
+        if (child.getLayerType() == LAYER_TYPE_HARDWARE) {
+            child.setLayerType(LAYER_TYPE_NONE, null);
+            mHardwareLayerCount--;
+        }
+    }
+
+    private void releaseHardwareLayers() {
+        if (mHardwareLayerCount == 0) {
+            return;
+        }
+        for (View child : mActiveViews) {
+            if (child != null) {
+                releaseHardwareLayer(child);
+            }
+        }
+        mHardwareLayerCount = 0;
+    }
+
     @Override
     public boolean onInterceptTouchEvent(final MotionEvent event) {
-        switch (event.getAction()) {
+        switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
                 startTouch(event);
                 return false;
 
             case MotionEvent.ACTION_MOVE:
-                return startScrollIfNeeded(event);
+                return mTouchState == TOUCH_STATE_ZOOM || startScrollIfNeeded(event);
+
+            case MotionEvent.ACTION_POINTER_DOWN:
+            case MotionEvent.ACTION_POINTER_UP:
+                return mTouchState == TOUCH_STATE_ZOOM;
 
             default:
                 endTouch();
@@ -169,20 +882,17 @@ public class BubbleCloudView<T extends Adapter> extends AdapterView<T> {
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        switch (event.getAction()) {
+        switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
                 startTouch(event);
                 break;
 
             case MotionEvent.ACTION_MOVE:
-                Log.d("BubbleCloudView", "===ActionMove===");
-
                 if (mTouchState == TOUCH_STATE_CLICK) {
                     startScrollIfNeeded(event);
                 }
                 if (mTouchState == TOUCH_STATE_SCROLL) {
                     scrollContainer((int) event.getX(), (int) event.getY());
-                    Log.d("BubbleCloudView", "===mTouchScroll===");
                 }
                 break;
 
@@ -194,6 +904,11 @@ public class BubbleCloudView<T extends Adapter> extends AdapterView<T> {
                 endTouch();
                 break;
 
+            case MotionEvent.ACTION_POINTER_DOWN:
+            case MotionEvent.ACTION_POINTER_UP:
+                // the scale detector handles the extra pointers
+                break;
+
             default:
                 endTouch();
                 break;
@@ -210,6 +925,8 @@ public class BubbleCloudView<T extends Adapter> extends AdapterView<T> {
                 || yPos < lastY - TOUCH_SCROLL_THRESHOLD
                 || yPos > lastY + TOUCH_SCROLL_THRESHOLD) {
             mTouchState = TOUCH_STATE_SCROLL;
+            beginMotion();
+            setScrollState(SCROLL_STATE_DRAGGING);
             return true;
         }
         return false;
@@ -244,303 +961,521 @@ public class BubbleCloudView<T extends Adapter> extends AdapterView<T> {
         }
 
 
-        iconMapRefresh(sphereR, hexR,
+        iconMapRefresh(sphereR, zoomedHexR(),
                 scrollX,
                 scrollY
         );
-        requestLayout();
+        if ((mOnScrollListener != null || mOnPrefetchListener != null) && mVelocityTracker != null) {
+            mVelocityTracker.computeCurrentVelocity(1000, mMaximumFlingVelocity);
+            mVelocityX = mVelocityTracker.getXVelocity();
+            mVelocityY = mVelocityTracker.getYVelocity();
+        }
+        updateBubbles();
+        if (mOnScrollListener != null) {
+            mOnScrollListener.onScroll(this, mVelocityX, mVelocityY);
+        }
     }
 
     private void clickChildAt(final int x, final int y) {
-        final int index = getContainingChildIndex(x, y);
-        if (index != INVALID_INDEX) {
-            final View itemView = getChildAt(index);
-            final int position = index;
+        final int position = getContainingPosition(x, y);
+        if (position != INVALID_INDEX) {
+            if (mBubbleSource != null) {
+                performItemClick(null, position, position);
+                return;
+            }
+            final View itemView = mActiveViews[position];
             final long id = mAdapter.getItemId(position);
             performItemClick(itemView, position, id);
         }
     }
 
-    private int getContainingChildIndex(final int x, final int y) {
-        if (mRect == null) {
-            mRect = new Rect();
+    private int getContainingPosition(final int x, final int y) {
+        if (mHitGridDirty) {
+            buildHitGrid();
         }
-        for (int index = 0; index < getChildCount(); index++) {
-            getChildAt(index).getHitRect(mRect);
-            if (mRect.contains(x, y)) {
-                return index;
+        return mHitGrid.find(x, y);
+    }
+
+    /**
+     * Buckets the circles of the bound bubbles, as currently projected and scaled.
+     */
+    private void buildHitGrid() {
+        final BubbleLayoutEngine engine = this.layoutEngine;
+        final View[] activeViews = mActiveViews;
+        final BubbleSource source = mBubbleSource;
+        final int count = source != null ? Math.min(source.getCount(), hexCellCount) : activeViews.length;
+        final int width = getWidth();
+        final int height = getHeight();
+        final float half = itemSize / 2f;
+        mHitGrid.reset(width, height, Math.max(mapHexR, itemSize * mZoom), count);
+        for (int position = 0; position < count; position++) {
+            if (source != null ? !isBubbleVisible(position, width, height) : activeViews[position] == null) {
+                continue;
             }
+            final float x = (int) engine.x[position] + centerW;
+            final float y = (int) engine.y[position] + centerH;
+            mHitGrid.insert(position, x, y, half * engine.scale[position]);
         }
-        return INVALID_INDEX;
+        mHitGridDirty = false;
+    }
+
+    @Override
+    public int getPositionForView(View view) {
+        // like AdapterView, accept any descendant of an item view
+        View itemView = view;
+        while (itemView != null && itemView.getParent() instanceof View && itemView.getParent() != this) {
+            itemView = (View) itemView.getParent();
+        }
+        view = itemView;
+        final View[] activeViews = mActiveViews;
+        for (int position = 0; position < activeViews.length; position++) {
+            if (activeViews[position] == view) {
+                return position;
+            }
+        }
+        return INVALID_POSITION;
     }
 
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         super.onLayout(changed, left, top, right, bottom);
 
+        if (mBubbleSource != null) {
+            if (ensureHexCells(mBubbleSource.getCount())) {
+                iconMapRefresh(sphereR, mapHexR, scrollX, scrollY);
+            }
+            updateScrollRange(mBubbleSource.getCount());
+            dispatchPrefetch();
+            mHitGridDirty = true;
+            return;
+        }
         if (mAdapter == null) {
             return;
         }
+        final boolean trace = BubbleTrace.ENABLED && mTraceListener != null;
+        final long start = trace ? System.nanoTime() : 0;
 
-        if (getChildCount() == 0) {
-            int position = 0;
-            while (position < mAdapter.getCount()) {
-                View newBottomChild = mAdapter.getView(position, null, this);
-                addAndMeasureChild(newBottomChild);
-                position++;
+        if (ensureHexCells(mAdapter.getCount())) {
+            iconMapRefresh(sphereR, mapHexR, scrollX, scrollY);
+        }
+        updateScrollRange(mAdapter.getCount());
+
+        int touched = fillViewport(right - left, bottom - top);
+        if (changed) {
+            final View[] activeViews = mActiveViews;
+            for (View child : activeViews) {
+                if (child != null) {
+                    layoutChild(child);
+                    touched++;
+                }
             }
         }
-
-        positionItems();
-    }
-
-    private void addAndMeasureChild(View child) {
-        LayoutParams params = child.getLayoutParams();
-        if (params == null) {
-            params = new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+        touched += positionItems();
+        if (trace) {
+            mTraceListener.onLayout(BubbleTrace.millisSince(start), touched);
         }
-        addViewInLayout(child, -1, params, true);
-        child.measure(MeasureSpec.EXACTLY | itemSize, MeasureSpec.EXACTLY | itemSize);
+        dispatchPrefetch();
     }
 
-    private void positionItems() {
-
-        for (int index = 0; index < getChildCount(); index++) {
-            View child = getChildAt(index);
-
-            final XY xy = hexCubeOrtho.get(index);
-
-            int width = child.getMeasuredWidth();
-            int height = child.getMeasuredHeight();
-            int offsetX = centerW - edgeSize;
-            int offsetY = centerH - edgeSize;
-
-            child.layout((int) xy.x + offsetX, (int) xy.y + offsetY, (int) xy.x + offsetX + width, (int) xy.y + offsetY + height);
-            child.setScaleX(xy.scale);
-            child.setScaleY(xy.scale);
-            child.setAlpha(animAlpha);
+    /**
+     * Applies the current projection to the bound views through their render properties.
+     * A layout pass is only requested when a bubble enters or leaves the viewport.
+     */
+    private void updateBubbles() {
+        if (mBubbleSource != null) {
+            mHitGridDirty = true;
+            invalidate();
+            dispatchPrefetch();
+            return;
+        }
+        if (mAdapter == null) {
+            return;
         }
+        if (needsFill(getWidth(), getHeight())) {
+            requestLayout();
+        } else if (BubbleTrace.ENABLED && mTraceListener != null) {
+            final long start = System.nanoTime();
+            final int touched = positionItems();
+            mTraceListener.onPosition(BubbleTrace.millisSince(start), touched);
+        } else {
+            positionItems();
+        }
+        dispatchPrefetch();
     }
 
-    private void init() {
-
-        this.hexCube = new ArrayList<>();
-        for (int i = 0; i < 4; i++)
-            for (int j = -i; j <= i; j++)
-                for (int k = -i; k <= i; k++)
-                    for (int l = -i; l <= i; l++)
-                        if (Math.abs(j) + Math.abs(k) + Math.abs(l) == i * 2 && j + k + l == 0) {
-                            final Integer[] integers = {j, k, l};
-                            this.hexCube.add(integers);
-                            Log.d("BubbleCloudView", "hexCube:" + Arrays.deepToString(integers));
-                        }
-
-        this.screenW = getResources().getDimensionPixelSize(R.dimen.screenw);
-        this.screenH = getResources().getDimensionPixelSize(R.dimen.screenh);
-        this.sphereR = getResources().getDimensionPixelSize(R.dimen.sphereR);
-        this.hexR = getResources().getDimensionPixelSize(R.dimen.hexR);
-        this.itemSize = getResources().getDimensionPixelSize(R.dimen.item_size);
-        this.edgeSize = getResources().getDimensionPixelSize(R.dimen.edge_size);
-        this.centerW = this.screenW / 2;
-        this.centerH = this.screenH / 2;
-        iconMapRefresh(sphereR, hexR + 100,
-                0,
-                0);
+    /**
+     * Reports the positions that came into view, or are about to, to the
+     * {@link OnPrefetchListener}.
+     */
+    private void dispatchPrefetch() {
+        if (mOnPrefetchListener == null) {
+            return;
+        }
+        final int count = Math.min(getItemCount(), hexCellCount);
+        final int planned = mPrefetchPlanner.plan(layoutEngine, count, mActiveViews, centerW, centerH,
+                getWidth(), getHeight(), itemSize * mZoom, mVelocityX, mVelocityY);
+        if (planned > 0) {
+            mOnPrefetchListener.onPrefetch(this, mPrefetchPlanner.getOrder(), planned);
+        }
     }
 
-    @Override
-    protected void onAttachedToWindow() {
-        super.onAttachedToWindow();
-        //开启动画
-        startEnterAnim();
+    private boolean needsFill(int width, int height) {
+        final int count = mAdapter.getCount();
+        final View[] activeViews = mActiveViews;
+        if (activeViews.length < count || hexCellCount < count) {
+            return true;
+        }
+        for (int position = 0; position < activeViews.length; position++) {
+            final boolean visible = position < count && isBubbleVisible(position, width, height);
+            if (visible != (activeViews[position] != null)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void iconMapRefresh(float sphereR, float hexR, float scrollX, float scrollY) {
-//        Log.d("BubbleCloudView", "sphereR:" + sphereR + ",hexR:" + hexR + ",scrollX:" + scrollX + ",scrollY:" + scrollY);
-
-        hexCubeOrtho.clear();
-        hexCubePolar.clear();
-        hexCubeSphere.clear();
-
-        for (int i = 0; i < hexCube.size(); i++) {
-            final Integer[] integers = this.hexCube.get(i);
-            XY tempxy = new XY();
-            tempxy.x = (integers[1] + integers[0] / 2f) * hexR + scrollX;
-            tempxy.y = (float) (Math.sqrt(3) / 2 * integers[0] * hexR + scrollY);
-            hexCubeOrtho.add(tempxy);
+    /**
+     * Binds a view for every bubble inside the viewport and moves the views of bubbles that
+     * left it to the recycle bin.
+     *
+     * @return number of views bound or recycled
+     */
+    private int fillViewport(int width, int height) {
+        final int count = mAdapter.getCount();
+        if (mActiveViews.length < count) {
+            final View[] activeViews = new View[count];
+            final long[] activeIds = new long[count];
+            final int[] activeTypes = new int[count];
+            System.arraycopy(mActiveViews, 0, activeViews, 0, mActiveViews.length);
+            System.arraycopy(mActiveIds, 0, activeIds, 0, mActiveIds.length);
+            System.arraycopy(mActiveTypes, 0, activeTypes, 0, mActiveTypes.length);
+            mActiveViews = activeViews;
+            mActiveIds = activeIds;
+            mActiveTypes = activeTypes;
         }
-
-        for (int i = 0; i < hexCubeOrtho.size(); i++) {
-            final XY hexCubexy = hexCubeOrtho.get(i);
-            hexCubePolar.add(ortho2polar(hexCubexy.x, hexCubexy.y));
+        final boolean stableIds = mAdapter.hasStableIds();
+
+        final View[] activeViews = mActiveViews;
+        int touched = 0;
+        for (int position = 0; position < activeViews.length; position++) {
+            final View child = activeViews[position];
+            final boolean visible = position < count && isBubbleVisible(position, width, height);
+            if (visible && child == null) {
+                mActiveTypes[position] = mAdapter.getItemViewType(position);
+                mActiveIds[position] = stableIds ? mAdapter.getItemId(position) : 0;
+                activeViews[position] = obtainView(position);
+                addAndMeasureChild(activeViews[position]);
+                layoutChild(activeViews[position]);
+                if (mInMotion && mUseHardwareLayers && isHardwareAccelerated()) {
+                    acquireHardwareLayer(activeViews[position]);
+                }
+                touched++;
+            } else if (!visible && child != null) {
+                recycleView(child, mActiveTypes[position]);
+                activeViews[position] = null;
+                touched++;
+            }
         }
+        return touched;
+    }
 
-
-        for (int i = 0; i < hexCubePolar.size(); i++) {
-
-            final Rrad rrad = hexCubePolar.get(i);
-
-            float rad = rrad.r / sphereR;
-            float r, deepth;
-            if (rad < Math.PI / 2) {
-                r = rrad.r * swing((float) (rad / (Math.PI / 2)), 1.5f, -0.5f, 1f);
-                deepth = easeInOutCubic((float) (rad / (Math.PI / 2)), 1f, -0.5f, 1f);
+    /**
+     * Draws the bubbles of the {@link BubbleSource}. Each bitmap gets one cached
+     * {@link BitmapShader}; per bubble only the shader matrix and one circle are set.
+     */
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        final BubbleSource source = mBubbleSource;
+        if (source == null) {
+            return;
+        }
+        final BubbleLevelSource levelSource = source instanceof BubbleLevelSource
+                ? (BubbleLevelSource) source : null;
+        final BubbleLayoutEngine engine = this.layoutEngine;
+        final int count = Math.min(source.getCount(), hexCellCount);
+        ensureShaderCapacity(count, mShaderSlots);
+        final int width = getWidth();
+        final int height = getHeight();
+        final int alpha = (int) (animAlpha * 255);
+        final float half = itemSize / 2f;
+        for (int position = 0; position < count; position++) {
+            if (!isBubbleVisible(position, width, height)) {
+                continue;
+            }
+            final float cx = (int) engine.x[position] + centerW;
+            final float cy = (int) engine.y[position] + centerH;
+            final float radius = half * engine.scale[position];
+            final Bitmap bitmap;
+            int level = 0;
+            if (levelSource != null) {
+                final Bitmap[] levels = levelSource.getBitmapLevels(position);
+                level = pickLevelIndex(levels, radius * 2);
+                bitmap = level < 0 ? null : levels[level];
+                if (level >= mShaderSlots) {
+                    ensureShaderCapacity(count, level + 1);
+                }
             } else {
-                r = rrad.r;
-                deepth = easeInOutCubic(1f, 1f, -0.5f, 1f);
+                bitmap = source.getBitmap(position);
             }
-
-            Rdr rdr = new Rdr();
-            rdr.r = r;
-            rdr.deepth = deepth;
-            rdr.rad = rrad.rad;
-            hexCubeSphere.add(rdr);
+            final Paint paint;
+            if (bitmap == null || bitmap.isRecycled()) {
+                paint = mPlaceholderPaint;
+                paint.setAlpha(alpha * mPlaceholderAlpha / 255);
+            } else {
+                paint = mBubblePaint;
+                paint.setShader(shaderFor(position * mShaderSlots + level, bitmap, cx, cy, radius));
+                paint.setAlpha(alpha);
+            }
+            canvas.drawCircle(cx, cy, radius, paint);
         }
-//        Log.d("BubbleCloudView", "iconMapRefresh:resultMap1====" + hexCubeSphere);
+        mBubblePaint.setShader(null);
+    }
 
-        hexCubeOrtho.clear();
-        for (int i = 0; i < hexCubeSphere.size(); i++) {
-            final Rdr rdr = hexCubeSphere.get(i);
-            hexCubeOrtho.add(polar2ortho(rdr.r, rdr.rad));
-        }
+    /**
+     * Picks the smallest of {@code levels}, ordered from largest to smallest, whose shorter
+     * side still covers {@code size} pixels, or the largest one if none does.
+     */
+    public static Bitmap pickLevel(Bitmap[] levels, float size) {
+        final int level = pickLevelIndex(levels, size);
+        return level < 0 ? null : levels[level];
+    }
 
-        for (int i = 0; i < hexCubeOrtho.size(); i++) {
-            final XY xy = hexCubeOrtho.get(i);
-            xy.x = Math.round(xy.x * 10) / 10;
-            xy.y = (float) (Math.round(xy.y * 10) / 10 * 1.14);
+    /**
+     * @return index of the level {@link #pickLevel} picks, or -1 if there are no levels
+     */
+    static int pickLevelIndex(Bitmap[] levels, float size) {
+        if (levels == null || levels.length == 0) {
+            return -1;
         }
-
-
-        final float edge = edgeSize;
-        for (int i = 0; i < hexCubeOrtho.size(); i++) {
-            final XY xy = hexCubeOrtho.get(i);
-            final Rdr rdr = hexCubeSphere.get(i);
-            if (Math.abs(xy.x) > this.screenW / 2 - edge || Math.abs(xy.y) > this.screenH / 2 - edge) {
-                xy.scale = rdr.deepth * 0.4f;
-            } else if (Math.abs(xy.x) > this.screenW / 2 - 2 * edge && Math.abs(xy.y) > this.screenH / 2 - 2 * edge) {
-                xy.scale = Math.min(rdr.deepth * easeInOutSine(this.screenW / 2 - Math.abs(xy.x) - edge, 0.4f, 0.6f, edge), rdr.deepth * easeInOutSine(this.screenH / 2 - Math.abs(xy.y) - edge, 0.3f, 0.7f, edge));
-            } else if (Math.abs(xy.x) > this.screenW / 2 - 2 * edge) {
-                xy.scale = rdr.deepth * easeOutSine(this.screenW / 2 - Math.abs(xy.x) - edge, 0.4f, 0.6f, edge);
-            } else if (Math.abs(xy.y) > this.screenH / 2 - 2 * edge) {
-                xy.scale = rdr.deepth * easeOutSine(this.screenH / 2 - Math.abs(xy.y) - edge, 0.4f, 0.6f, edge);
-            } else {
-                xy.scale = rdr.deepth;
+        for (int level = levels.length - 1; level > 0; level--) {
+            final Bitmap bitmap = levels[level];
+            if (bitmap != null && Math.min(bitmap.getWidth(), bitmap.getHeight()) >= size) {
+                return level;
             }
         }
+        return 0;
+    }
 
-        for (int i = 0; i < hexCubeOrtho.size(); i++) {
-            final XY xy = hexCubeOrtho.get(i);
-            if (xy.x < -this.screenW / 2 + 2 * edge) {
-                xy.x += easeInSine(this.screenW / 2 - Math.abs(xy.x) - 2 * edge, 0, 6f, 2 * edge);
-            } else if (xy.x > this.screenW / 2 - 2 * edge) {
-                xy.x += easeInSine(this.screenW / 2 - Math.abs(xy.x) - 2 * edge, 0, -6f, 2 * edge);
-            }
-            if (xy.y < -this.screenH / 2 + 2 * edge) {
-                xy.y += easeInSine(this.screenH / 2 - Math.abs(xy.y) - 2 * edge, 0, 8f, 2 * edge);
-            } else if (xy.y > this.screenH / 2 - 2 * edge) {
-                xy.y += easeInSine(this.screenH / 2 - Math.abs(xy.y) - 2 * edge, 0, -8f, 2 * edge);
-            }
+    private BitmapShader shaderFor(int slot, Bitmap bitmap, float cx, float cy, float radius) {
+        BitmapShader shader = mShaders[slot];
+        if (shader == null || mShaderBitmaps[slot] != bitmap) {
+            shader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            mShaders[slot] = shader;
+            mShaderBitmaps[slot] = bitmap;
         }
-//        Log.d("BubbleCloudView", "iconMapRefresh:resultMap2====" + hexCubeOrtho);
-
+        final int bitmapW = bitmap.getWidth();
+        final int bitmapH = bitmap.getHeight();
+        final float scale = radius * 2 / Math.max(1, Math.min(bitmapW, bitmapH));
+        mShaderMatrix.setScale(scale, scale);
+        mShaderMatrix.postTranslate(cx - bitmapW * scale / 2, cy - bitmapH * scale / 2);
+        shader.setLocalMatrix(mShaderMatrix);
+        return shader;
     }
 
-    private float easeInSine(float t, float b, float c, float d) {
-        return (float) (-c * Math.cos(t / d * (Math.PI / 2)) + c + b);
+    private boolean isBubbleVisible(int position, int width, int height) {
+        final int size = (int) (itemSize * mZoom);
+        final int left = (int) layoutEngine.x[position] + centerW - size / 2;
+        final int top = (int) layoutEngine.y[position] + centerH - size / 2;
+        return left < width && left + size > 0 && top < height && top + size > 0;
     }
 
-    private float swing(float t, float b, float c, float d) {
-        return -c * (t /= d) * (t - 2) + b;
+    private View obtainView(int position) {
+        final int viewType = mAdapter.getItemViewType(position);
+        final View scrap = mRecycler.getScrapView(viewType);
+        final View child = mAdapter.getView(position, scrap, this);
+        if (scrap != null && child != scrap) {
+            mRecycler.addScrapView(scrap, viewType);
+        }
+        return child;
     }
 
-    private float easeInOutCubic(float t, float b, float c, float d) {
-        if ((t /= d / 2) < 1)
-            return c / 2 * t * t * t + b;
-        return c / 2 * ((t -= 2) * t * t + 2) + b;
+    private void addAndMeasureChild(View child) {
+        LayoutParams params = child.getLayoutParams();
+        if (params == null) {
+            params = new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+        }
+        addViewInLayout(child, -1, params, true);
+        child.measure(MeasureSpec.EXACTLY | itemSize, MeasureSpec.EXACTLY | itemSize);
     }
 
-    private float easeInOutSine(float t, float b, float c, float d) {
-        return (float) (-c / 2 * (Math.cos(Math.PI * t / d) - 1) + b);
+    /**
+     * Lays a child out on the center cell. Its actual place on the sphere is applied
+     * through its translation in {@link #positionItems()}, so scrolling never needs
+     * another layout pass.
+     */
+    private void layoutChild(View child) {
+        final int width = child.getMeasuredWidth();
+        final int height = child.getMeasuredHeight();
+        final int offsetX = centerW - width / 2;
+        final int offsetY = centerH - height / 2;
+        child.layout(offsetX, offsetY, offsetX + width, offsetY + height);
     }
 
-    private float easeOutSine(float t, float b, float c, float d) {
-        return (float) (c * Math.sin(t / d * (Math.PI / 2)) + b);
-    }
+    /**
+     * @return number of views whose transform was set
+     */
+    private int positionItems() {
+
+        final BubbleLayoutEngine engine = this.layoutEngine;
+        final View[] activeViews = mActiveViews;
+        int touched = 0;
+        for (int position = 0; position < activeViews.length; position++) {
+            final View child = activeViews[position];
+            if (child == null) {
+                continue;
+            }
 
-    private XY polar2ortho(float r, float rad) {
-        float x = (float) (r * Math.cos(rad));
-        float y = (float) (r * Math.sin(rad));
-        XY tempxy = new XY();
-        tempxy.x = x;
-        tempxy.y = y;
-        return tempxy;
+            final float scale = engine.scale[position];
+            child.setTranslationX((int) engine.x[position]);
+            child.setTranslationY((int) engine.y[position]);
+            child.setScaleX(scale);
+            child.setScaleY(scale);
+            final boolean appearing = mMoveFraction < 1 && position < mMoveFrom.length
+                    && mMoveFrom[position] == INVALID_INDEX;
+            child.setAlpha(appearing ? animAlpha * mMoveFraction : animAlpha);
+            touched++;
+        }
+        mHitGridDirty = true;
+        return touched;
     }
 
-    private Rrad ortho2polar(float x, float y) {
-        float r = (float) Math.sqrt(Math.pow(x, 2) + Math.pow(y, 2));
-        float rad = (float) Math.atan2(y, x);
-        Rrad temprad = new Rrad();
-        temprad.r = r;
-        temprad.rad = rad;
-        return temprad;
+    private void init(AttributeSet attrs, int defStyleAttr) {
+
+        this.hexCube = HexGrid.lattice(0);
+
+        final Resources res = getResources();
+        final TypedArray a = getContext().obtainStyledAttributes(attrs, R.styleable.BubbleCloudView, defStyleAttr, 0);
+        this.sphereR = a.getDimensionPixelSize(R.styleable.BubbleCloudView_sphereRadius, 0);
+        this.sphereRFixed = sphereR > 0;
+        if (!sphereRFixed) {
+            this.sphereR = res.getDimensionPixelSize(R.dimen.sphereR);
+        }
+        this.hexR = a.getDimensionPixelSize(R.styleable.BubbleCloudView_hexRadius,
+                res.getDimensionPixelSize(R.dimen.hexR));
+        this.itemSize = a.getDimensionPixelSize(R.styleable.BubbleCloudView_itemSize,
+                res.getDimensionPixelSize(R.dimen.item_size));
+        this.edgeSize = a.getDimensionPixelSize(R.styleable.BubbleCloudView_edgeSize,
+                res.getDimensionPixelSize(R.dimen.edge_size));
+        this.mUseLookupTable = a.getBoolean(R.styleable.BubbleCloudView_useLookupTable, false);
+        this.mUseHardwareLayers = a.getBoolean(R.styleable.BubbleCloudView_useHardwareLayers, false);
+        this.mMaxHardwareLayers = a.getInt(R.styleable.BubbleCloudView_maxHardwareLayers,
+                DEFAULT_MAX_HARDWARE_LAYERS);
+        this.mSnapToCenter = a.getBoolean(R.styleable.BubbleCloudView_snapToCenter, false);
+        final boolean zoomEnabled = a.getBoolean(R.styleable.BubbleCloudView_zoomEnabled, false);
+        a.recycle();
+        mPlaceholderPaint.setColor(DEFAULT_PLACEHOLDER_COLOR);
+        this.mMaximumFlingVelocity = ViewConfiguration.get(getContext()).getScaledMaximumFlingVelocity();
+
+        this.layoutEngine = new BubbleLayoutEngine(HexGrid.cellCount(3));
+        setZoomEnabled(zoomEnabled);
+        iconMapRefresh(sphereR, hexR + 100,
+                0,
+                0);
     }
 
-    private void startEnterAnim() {
-        ValueAnimator startAnim = ValueAnimator.ofFloat(0, 1);
-        startAnim.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                final float v = easeOutCubic((float) animation.getAnimatedValue() * 36, hexR * 2, -hexR, 36f);
-                iconMapRefresh(sphereR, v, 0, 0);
-                animAlpha = animation.getAnimatedFraction();
-                requestLayout();
-            }
-        });
-        startAnim.setDuration(1000);
-        startAnim.start();
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateGeometry(w, h);
     }
 
-    private float easeOutCubic(float t, float b, float c, float d) {
-        return c * ((t = t / d - 1) * t * t + 1) + b;
+    /**
+     * Derives the viewport from the real bounds of the view, minus its padding. The
+     * projection is only redone when the viewport actually changed.
+     */
+    private void updateGeometry(int width, int height) {
+        final int newScreenW = Math.max(0, width - getPaddingLeft() - getPaddingRight());
+        final int newScreenH = Math.max(0, height - getPaddingTop() - getPaddingBottom());
+        if (newScreenW == screenW && newScreenH == screenH) {
+            return;
+        }
+        this.screenW = newScreenW;
+        this.screenH = newScreenH;
+        this.centerW = getPaddingLeft() + screenW / 2;
+        this.centerH = getPaddingTop() + screenH / 2;
+        if (!sphereRFixed) {
+            this.sphereR = Math.min(screenW, screenH) / 2;
+        }
+        layoutEngine.setViewport(screenW, screenH, edgeSize);
+        iconMapRefresh(sphereR, mapHexR, scrollX, scrollY);
+        mHitGridDirty = true;
+        mScrollRangeRings = -1;
     }
 
-    private class XY {
-        float x, y, scale;
+    /**
+     * Sizes the scroll range so that the outermost ring of {@code count} items can be
+     * panned up to the viewport edge. Clouds that fit the viewport keep a small range to
+     * rubber band in. The range is cached per ring count and only recomputed when that
+     * count or the viewport changes.
+     */
+    private void updateScrollRange(int count) {
+        final int rings = HexGrid.radiusFor(count);
+        if (rings == mScrollRangeRings) {
+            return;
+        }
+        mScrollRangeRings = rings;
+        final float extentX = rings * zoomedHexR();
+        final float extentY = rings * zoomedHexR() * SQRT3_2;
+        // the projection stretches y by 1.14
+        final float visibleX = (screenW - itemSize * mZoom) / 2f;
+        final float visibleY = (screenH - itemSize * mZoom) / 2f / 1.14f;
+        scrollRangeX = Math.max(MIN_SCROLL_RANGE_X, (int) (extentX - visibleX));
+        scrollRangeY = Math.max(MIN_SCROLL_RANGE_Y, (int) (extentY - visibleY));
+    }
 
-        @Override
-        public String toString() {
-            return "XY{" +
-                    "scale=" + scale +
-                    ", x=" + x +
-                    ", y=" + y +
-                    '}';
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mUseLookupTable) {
+            buildLookupTable();
         }
+        //开启动画
+        startEnterAnim();
     }
 
-    private class Rrad {
-        float r, rad;
+    @Override
+    protected void onDetachedFromWindow() {
+        stopAnimations();
+        endMotion();
+        setScrollState(SCROLL_STATE_IDLE);
+        super.onDetachedFromWindow();
+    }
 
-        @Override
-        public String toString() {
-            return "Rrad{" +
-                    "r=" + r +
-                    ", rad=" + rad +
-                    '}';
+    /**
+     * Grows the hex lattice so that it holds at least {@code count} cells.
+     *
+     * @return true if cells were added
+     */
+    private boolean ensureHexCells(int count) {
+        if (hexCellCount >= count) {
+            return false;
+        }
+        if (hexCube.length < count * 3) {
+            hexCube = HexGrid.lattice(HexGrid.radiusFor(count));
         }
+        hexCellCount = count;
+        layoutEngine.setLattice(hexCube, count);
+        return true;
     }
 
-    private class Rdr {
-        float r, deepth, rad;
-
-        @Override
-        public String toString() {
-            return "Rdr{" +
-                    "deepth=" + deepth +
-                    ", r=" + r +
-                    ", rad=" + rad +
-                    '}';
+    private void iconMapRefresh(float sphereR, float hexR, float scrollX, float scrollY) {
+        mapHexR = hexR;
+        if (BubbleTrace.ENABLED && mTraceListener != null) {
+            final long start = System.nanoTime();
+            layoutEngine.refresh(sphereR, hexR, scrollX, scrollY);
+            mTraceListener.onProjection(BubbleTrace.millisSince(start), layoutEngine.getCount());
+        } else {
+            layoutEngine.refresh(sphereR, hexR, scrollX, scrollY);
         }
     }
 
+    private void startEnterAnim() {
+        beginMotion();
+        mAnimator.startEnter();
+    }
 
+    private float easeOutCubic(float t, float b, float c, float d) {
+        return c * ((t = t / d - 1) * t * t + 1) + b;
+    }
 }
@@ -0,0 +1,90 @@
+package com.dodola.bubblecloud;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the viewport that answers which bubble is under a point.
+ * <p/>
+ * Bubbles are bucketed by their projected center. The bucket size is at least one bubble
+ * diameter, so a query only needs to look at the 3x3 buckets around the point. Hits are
+ * tested against the scaled circle of each bubble, not its layout rectangle. Buckets are
+ * singly linked lists stored in int arrays that are reused between rebuilds.
+ */
+class BubbleHitGrid {
+
+    private static final int NONE = -1;
+
+    private float cellSize;
+    private int columns;
+    private int rows;
+    private int[] head = new int[0];
+    private int[] next = new int[0];
+    private float[] centerX = new float[0];
+    private float[] centerY = new float[0];
+    private float[] radius = new float[0];
+
+    /**
+     * Empties the grid and sizes it for a {@code width x height} viewport.
+     *
+     * @param cellSize bucket size, at least the largest bubble diameter
+     * @param capacity number of positions that may be inserted
+     */
+    void reset(int width, int height, float cellSize, int capacity) {
+        this.cellSize = Math.max(1f, cellSize);
+        columns = Math.max(1, (int) Math.ceil(width / this.cellSize));
+        rows = Math.max(1, (int) Math.ceil(height / this.cellSize));
+        final int buckets = columns * rows;
+        if (head.length < buckets) {
+            head = new int[buckets];
+        }
+        Arrays.fill(head, 0, buckets, NONE);
+        if (next.length < capacity) {
+            next = new int[capacity];
+            centerX = new float[capacity];
+            centerY = new float[capacity];
+            radius = new float[capacity];
+        }
+    }
+
+    void insert(int position, float x, float y, float r) {
+        final int column = (int) (x / cellSize);
+        final int row = (int) (y / cellSize);
+        if (x < 0 || y < 0 || column >= columns || row >= rows) {
+            return;
+        }
+        final int bucket = row * columns + column;
+        centerX[position] = x;
+        centerY[position] = y;
+        radius[position] = r;
+        next[position] = head[bucket];
+        head[bucket] = position;
+    }
+
+    /**
+     * @return the position whose circle contains the point and whose center is closest to
+     * it, or -1 if there is none
+     */
+    int find(float x, float y) {
+        if (x < 0 || y < 0) {
+            return NONE;
+        }
+        final int column = (int) (x / cellSize);
+        final int row = (int) (y / cellSize);
+        int found = NONE;
+        float foundDistance = Float.MAX_VALUE;
+        for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+            for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+                for (int position = head[r * columns + c]; position != NONE; position = next[position]) {
+                    final float dx = x - centerX[position];
+                    final float dy = y - centerY[position];
+                    final float distance = dx * dx + dy * dy;
+                    if (distance <= radius[position] * radius[position] && distance < foundDistance) {
+                        found = position;
+                        foundDistance = distance;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+}
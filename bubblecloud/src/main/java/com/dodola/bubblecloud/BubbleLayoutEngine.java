@@ -0,0 +1,364 @@
+package com.dodola.bubblecloud;
+
+/**
+ * Projects the hex lattice of a {@link BubbleCloudView} onto its fisheye sphere.
+ * <p/>
+ * The lattice is cached as primitive floats: {@link #setLattice} converts the packed cube
+ * coordinates once, and the lattice scaled by {@code hexR} is only rebuilt when
+ * {@code hexR} changes, so a scroll frame starts with a plain add of the offset.
+ * <p/>
+ * Results are kept as a struct of arrays indexed by cell: {@link #x}, {@link #y} and
+ * {@link #scale} are what the view consumes, {@link #r}, {@link #rad} and {@link #depth}
+ * are the intermediate polar/sphere values. All arrays are preallocated and only grow when
+ * the cell count does, so {@link #refresh} allocates nothing per frame. The class has no
+ * Android dependencies and can be tested on the JVM.
+ * <p/>
+ * With a {@link FisheyeTable} set, the sphere step interpolates the table instead of
+ * evaluating the curves, and {@link #rad} is not filled in. Cells whose interpolated position
+ * lies within the table error of a pixel snap boundary are evaluated exactly, so {@link #x}
+ * and {@link #y} are the same as without the table and only {@link #scale} carries the
+ * small error of the interpolated depth.
+ * <p/>
+ * {@link #startMove} animates bubbles between cells: each cell carries an offset, in
+ * lattice units, back to the cell its bubble came from, and that offset is added before
+ * the projection, scaled by the part of the move that is still left.
+ */
+public class BubbleLayoutEngine {
+
+    private static final double SQRT3_2 = Math.sqrt(3) / 2;
+    private static final double HALF_PI = Math.PI / 2;
+    private static final float EDGE_DEPTH = easeInOutCubic(1f, 1f, -0.5f, 1f);
+
+    float[] x;
+    float[] y;
+    float[] scale;
+    float[] r;
+    float[] rad;
+    float[] depth;
+    private int count;
+
+    private float[] unitX;
+    /**
+     * Kept in double precision like the original projection, whose float cast came after
+     * the scroll offset was added.
+     */
+    private double[] unitY;
+    private float[] latticeX;
+    private double[] latticeY;
+    private float latticeHexR = Float.NaN;
+    private float[] moveX;
+    private float[] moveY;
+    private float[] moveScratchX;
+    private float[] moveScratchY;
+    private float moveRemaining;
+
+    private int screenW;
+    private int screenH;
+    private float edgeSize;
+    private FisheyeTable table;
+    private float itemScale = 1;
+
+    public BubbleLayoutEngine(int capacity) {
+        allocate(capacity);
+    }
+
+    /**
+     * Grows the buffers to hold at least {@code capacity} cells. Existing buffers are kept
+     * when they are already large enough.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > x.length) {
+            allocate(capacity);
+        }
+    }
+
+    private void allocate(int capacity) {
+        unitX = grow(unitX, capacity);
+        unitY = grow(unitY, capacity);
+        moveX = grow(moveX, capacity);
+        moveY = grow(moveY, capacity);
+        moveScratchX = new float[capacity];
+        moveScratchY = new float[capacity];
+        latticeX = new float[capacity];
+        latticeY = new double[capacity];
+        latticeHexR = Float.NaN;
+        x = new float[capacity];
+        y = new float[capacity];
+        scale = new float[capacity];
+        r = new float[capacity];
+        rad = new float[capacity];
+        depth = new float[capacity];
+    }
+
+    private static float[] grow(float[] array, int capacity) {
+        final float[] grown = new float[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, grown, 0, Math.min(array.length, capacity));
+        }
+        return grown;
+    }
+
+    private static double[] grow(double[] array, int capacity) {
+        final double[] grown = new double[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, grown, 0, Math.min(array.length, capacity));
+        }
+        return grown;
+    }
+
+    /**
+     * Sets the lattice to project.
+     *
+     * @param hexCube packed cube coordinates, {@code q, r, s} per cell, as returned by
+     *                {@link HexGrid#lattice(int)}
+     * @param n       number of cells to project
+     */
+    public void setLattice(int[] hexCube, int n) {
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            final int q = hexCube[i * 3];
+            final int r = hexCube[i * 3 + 1];
+            unitX[i] = r + q / 2f;
+            unitY[i] = SQRT3_2 * q;
+        }
+        count = n;
+        latticeHexR = Float.NaN;
+    }
+
+    /**
+     * Starts moving bubbles between cells. The bubble now in cell {@code i} is drawn at cell
+     * {@code from[i]} when the move fraction is 0 and at cell {@code i} when it is 1; an
+     * entry of -1 does not move. A move that is still running continues from where its
+     * bubbles are currently drawn.
+     *
+     * @param from previous cell of each bubble, {@code from[i]} must be below the cell count
+     *             that was set when the bubble was there
+     * @param n    number of entries of {@code from}
+     */
+    public void startMove(int[] from, int n) {
+        final float remaining = moveRemaining;
+        final float[] nextX = moveScratchX;
+        final float[] nextY = moveScratchY;
+        final int cells = count;
+        for (int i = 0; i < cells; i++) {
+            final int f = i < n ? from[i] : -1;
+            if (f < 0) {
+                nextX[i] = 0;
+                nextY[i] = 0;
+            } else {
+                nextX[i] = unitX[f] + moveX[f] * remaining - unitX[i];
+                nextY[i] = (float) (unitY[f] + moveY[f] * remaining - unitY[i]);
+            }
+        }
+        moveScratchX = moveX;
+        moveScratchY = moveY;
+        moveX = nextX;
+        moveY = nextY;
+        moveRemaining = 1;
+    }
+
+    /**
+     * @param fraction progress of the move started by {@link #startMove}, 1 when it is done
+     */
+    public void setMoveFraction(float fraction) {
+        moveRemaining = 1 - fraction;
+    }
+
+    public void setViewport(int screenW, int screenH, int edgeSize) {
+        this.screenW = screenW;
+        this.screenH = screenH;
+        this.edgeSize = edgeSize;
+    }
+
+    /**
+     * @param table lookup table for the sphere step, or null to evaluate it exactly
+     */
+    public void setProjectionTable(FisheyeTable table) {
+        this.table = table;
+    }
+
+    public FisheyeTable getProjectionTable() {
+        return table;
+    }
+
+    /**
+     * @param itemScale factor applied to every {@link #scale}, such as a zoom level
+     */
+    public void setItemScale(float itemScale) {
+        this.itemScale = itemScale;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public float getX(int index) {
+        return x[index];
+    }
+
+    public float getY(int index) {
+        return y[index];
+    }
+
+    public float getScale(int index) {
+        return scale[index];
+    }
+
+    /**
+     * Recomputes every cell in place.
+     *
+     * @param sphereR radius of the fisheye sphere
+     * @param hexR    distance between two neighbouring cells
+     * @param scrollX horizontal scroll offset applied before the projection
+     * @param scrollY vertical scroll offset applied before the projection
+     */
+    public void refresh(float sphereR, float hexR, float scrollX, float scrollY) {
+        final int n = count;
+        if (hexR != latticeHexR) {
+            for (int i = 0; i < n; i++) {
+                latticeX[i] = unitX[i] * hexR;
+                latticeY[i] = unitY[i] * hexR;
+            }
+            latticeHexR = hexR;
+        }
+
+        final float[] x = this.x;
+        final float[] y = this.y;
+        if (moveRemaining > 0) {
+            final float k = moveRemaining * hexR;
+            final float[] moveX = this.moveX;
+            final float[] moveY = this.moveY;
+            for (int i = 0; i < n; i++) {
+                x[i] = latticeX[i] + moveX[i] * k + scrollX;
+                y[i] = (float) (latticeY[i] + moveY[i] * k + scrollY);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                x[i] = latticeX[i] + scrollX;
+                y[i] = (float) (latticeY[i] + scrollY);
+            }
+        }
+
+        final float edge = edgeSize;
+        final float halfW = screenW / 2;
+        final float halfH = screenH / 2;
+
+        for (int i = 0; i < n; i++) {
+            final float ox = x[i];
+            final float oy = y[i];
+
+            final float pr = (float) Math.sqrt((double) ox * ox + (double) oy * oy);
+            float px = 0;
+            float py = 0;
+            float d = 0;
+            boolean exact = table == null;
+            if (!exact) {
+                // the remap only scales the radius, so the angle never has to be computed
+                final float pos = pr / sphereR * table.indexScale;
+                final float f;
+                if (pos < table.last) {
+                    final int index = (int) pos;
+                    final float frac = pos - index;
+                    f = table.factor[index] + (table.factor[index + 1] - table.factor[index]) * frac;
+                    d = table.depth[index] + (table.depth[index + 1] - table.depth[index]) * frac;
+                } else {
+                    f = 1f;
+                    d = EDGE_DEPTH;
+                }
+                px = ox * f;
+                py = oy * f;
+                // the pixel snap below would turn the tiny interpolation error into a whole
+                // pixel step, so cells that close to a snap boundary are computed exactly
+                final float margin = pr * table.relativeError;
+                if (snap(px - margin) != snap(px + margin) || snap(py - margin) != snap(py + margin)) {
+                    exact = true;
+                } else {
+                    r[i] = pr * f;
+                    depth[i] = d;
+                }
+            }
+            if (exact) {
+                // ortho -> polar
+                final float angle = (float) Math.atan2(oy, ox);
+
+                // polar -> sphere
+                final float t = pr / sphereR;
+                final float sr;
+                if (t < HALF_PI) {
+                    sr = pr * swing((float) (t / HALF_PI), 1.5f, -0.5f, 1f);
+                    d = easeInOutCubic((float) (t / HALF_PI), 1f, -0.5f, 1f);
+                } else {
+                    sr = pr;
+                    d = EDGE_DEPTH;
+                }
+                r[i] = sr;
+                rad[i] = angle;
+                depth[i] = d;
+
+                // sphere -> ortho
+                px = (float) (sr * Math.cos(angle));
+                py = (float) (sr * Math.sin(angle));
+            }
+            px = snap(px);
+            py = (float) (snap(py) * 1.14);
+
+            final float ax = Math.abs(px);
+            final float ay = Math.abs(py);
+            final float ds = d * itemScale;
+            if (ax > halfW - edge || ay > halfH - edge) {
+                scale[i] = ds * 0.4f;
+            } else if (ax > halfW - 2 * edge && ay > halfH - 2 * edge) {
+                scale[i] = Math.min(ds * easeInOutSine(halfW - ax - edge, 0.4f, 0.6f, edge),
+                        ds * easeInOutSine(halfH - ay - edge, 0.3f, 0.7f, edge));
+            } else if (ax > halfW - 2 * edge) {
+                scale[i] = ds * easeOutSine(halfW - ax - edge, 0.4f, 0.6f, edge);
+            } else if (ay > halfH - 2 * edge) {
+                scale[i] = ds * easeOutSine(halfH - ay - edge, 0.4f, 0.6f, edge);
+            } else {
+                scale[i] = ds;
+            }
+
+            if (px < -halfW + 2 * edge) {
+                px += easeInSine(halfW - ax - 2 * edge, 0, 6f, 2 * edge);
+            } else if (px > halfW - 2 * edge) {
+                px += easeInSine(halfW - ax - 2 * edge, 0, -6f, 2 * edge);
+            }
+            if (py < -halfH + 2 * edge) {
+                py += easeInSine(halfH - ay - 2 * edge, 0, 8f, 2 * edge);
+            } else if (py > halfH - 2 * edge) {
+                py += easeInSine(halfH - ay - 2 * edge, 0, -8f, 2 * edge);
+            }
+            x[i] = px;
+            y[i] = py;
+        }
+    }
+
+    /**
+     * The whole-pixel snap of the original projection: rounds to a tenth, then truncates.
+     */
+    private static int snap(float p) {
+        return Math.round(p * 10) / 10;
+    }
+
+    static float easeInSine(float t, float b, float c, float d) {
+        return (float) (-c * Math.cos(t / d * (Math.PI / 2)) + c + b);
+    }
+
+    static float swing(float t, float b, float c, float d) {
+        return -c * (t /= d) * (t - 2) + b;
+    }
+
+    static float easeInOutCubic(float t, float b, float c, float d) {
+        if ((t /= d / 2) < 1)
+            return c / 2 * t * t * t + b;
+        return c / 2 * ((t -= 2) * t * t + 2) + b;
+    }
+
+    static float easeInOutSine(float t, float b, float c, float d) {
+        return (float) (-c / 2 * (Math.cos(Math.PI * t / d) - 1) + b);
+    }
+
+    static float easeOutSine(float t, float b, float c, float d) {
+        return (float) (c * Math.sin(t / d * (Math.PI / 2)) + b);
+    }
+}
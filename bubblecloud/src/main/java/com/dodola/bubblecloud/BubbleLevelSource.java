@@ -0,0 +1,19 @@
+package com.dodola.bubblecloud;
+
+import android.graphics.Bitmap;
+
+/**
+ * A {@link BubbleSource} with several level-of-detail bitmaps per bubble, such as the ones
+ * made by {@code ImageResizer.decodeSampledBitmapLevelsFromFile}. For every bubble the
+ * view draws the smallest level that still covers its projected size, so the shrunken
+ * bubbles near the edges sample much smaller textures.
+ */
+public interface BubbleLevelSource extends BubbleSource {
+
+    /**
+     * Like {@link #getBitmap(int)}, called for every visible bubble on every frame.
+     *
+     * @return the levels of the bubble ordered from largest to smallest, or null
+     */
+    Bitmap[] getBitmapLevels(int position);
+}
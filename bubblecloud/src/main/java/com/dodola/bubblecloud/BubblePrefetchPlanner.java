@@ -0,0 +1,110 @@
+package com.dodola.bubblecloud;
+
+import android.view.View;
+
+import java.util.Arrays;
+
+/**
+ * Orders the positions of a {@link BubbleCloudView} by how soon their content is needed.
+ * <p/>
+ * Bubbles inside the viewport come first, from the center outwards. They are followed by
+ * the bubbles that the current velocity moves into the viewport within
+ * {@link #LOOKAHEAD_SECONDS}, nearest first. Positions with a bound view are skipped, the
+ * adapter already loads their content. A position is planned once while it stays in that
+ * area and again after it left it, so a plan only holds what was not asked for recently
+ * and is usually empty while the cloud sits still.
+ */
+class BubblePrefetchPlanner {
+
+    static final float LOOKAHEAD_SECONDS = 0.3f;
+
+    private boolean[] planned = new boolean[0];
+    private int[] order = new int[0];
+    private float[] priority = new float[0];
+    // upcoming bubbles, sorted on their own and appended after the visible ones
+    private int[] upcoming = new int[0];
+    private float[] upcomingPriority = new float[0];
+
+    void reset() {
+        Arrays.fill(planned, false);
+    }
+
+    /**
+     * @return positions of the last plan, the first {@code plan(...)} entries are valid
+     */
+    int[] getOrder() {
+        return order;
+    }
+
+    /**
+     * Plans the positions that were not planned yet.
+     *
+     * @param bound     views bound by position, positions that have one are not planned
+     * @param centerX   viewport center the projected positions are relative to
+     * @param size      on-screen size of a bubble
+     * @param velocityX current horizontal velocity, in pixels per second
+     * @param velocityY current vertical velocity, in pixels per second
+     * @return number of positions written to {@link #getOrder()}
+     */
+    int plan(BubbleLayoutEngine engine, int count, View[] bound, int centerX, int centerY, int width,
+             int height, float size, float velocityX, float velocityY) {
+        if (planned.length < count) {
+            planned = Arrays.copyOf(planned, count);
+            order = new int[count];
+            priority = new float[count];
+            upcoming = new int[count];
+            upcomingPriority = new float[count];
+        }
+        final float half = size / 2;
+        final float aheadX = velocityX * LOOKAHEAD_SECONDS;
+        final float aheadY = velocityY * LOOKAHEAD_SECONDS;
+        int visibleCount = 0;
+        int upcomingCount = 0;
+        for (int position = 0; position < count; position++) {
+            if (position < bound.length && bound[position] != null) {
+                continue;
+            }
+            final float x = engine.x[position];
+            final float y = engine.y[position];
+            final boolean visible = contains(x + centerX, y + centerY, half, width, height);
+            if (!visible && !contains(x + aheadX + centerX, y + aheadY + centerY, half, width, height)) {
+                // plan it again when it comes back, its icon may have been evicted by then
+                planned[position] = false;
+                continue;
+            }
+            if (planned[position]) {
+                continue;
+            }
+            final float key = x * x + y * y;
+            if (visible) {
+                visibleCount = insert(order, priority, visibleCount, position, key);
+            } else {
+                upcomingCount = insert(upcoming, upcomingPriority, upcomingCount, position, key);
+            }
+            planned[position] = true;
+        }
+        System.arraycopy(upcoming, 0, order, visibleCount, upcomingCount);
+        return visibleCount + upcomingCount;
+    }
+
+    /**
+     * Insertion sort by ascending key, plans hold at most a screenful of bubbles.
+     *
+     * @return the new number of entries
+     */
+    private static int insert(int[] positions, float[] keys, int n, int position, float key) {
+        int i = n;
+        while (i > 0 && keys[i - 1] > key) {
+            keys[i] = keys[i - 1];
+            positions[i] = positions[i - 1];
+            i--;
+        }
+        keys[i] = key;
+        positions[i] = position;
+        return n + 1;
+    }
+
+    private static boolean contains(float x, float y, float half, int width, int height) {
+        return x + half > 0 && x - half < width && y + half > 0 && y - half < height;
+    }
+}
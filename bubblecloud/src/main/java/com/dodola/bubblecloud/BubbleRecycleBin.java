@@ -0,0 +1,67 @@
+package com.dodola.bubblecloud;
+
+import android.view.View;
+import android.widget.Adapter;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps bubble views that scrolled out of the viewport so they can be handed back to
+ * {@link Adapter#getView} as {@code convertView}. Scrap views are kept per
+ * {@link Adapter#getItemViewType view type}.
+ */
+class BubbleRecycleBin {
+
+    private ArrayList<View>[] mScrapViews;
+
+    BubbleRecycleBin() {
+        setViewTypeCount(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    void setViewTypeCount(int viewTypeCount) {
+        if (viewTypeCount < 1) {
+            throw new IllegalArgumentException("Can't have a viewTypeCount < 1");
+        }
+        final ArrayList<View>[] scrapViews = new ArrayList[viewTypeCount];
+        for (int i = 0; i < viewTypeCount; i++) {
+            scrapViews[i] = new ArrayList<>();
+        }
+        mScrapViews = scrapViews;
+    }
+
+    /**
+     * @return true if views of this type can be recycled
+     */
+    boolean shouldRecycleViewType(int viewType) {
+        return viewType >= 0 && viewType < mScrapViews.length;
+    }
+
+    void addScrapView(View scrap, int viewType) {
+        if (!shouldRecycleViewType(viewType)) {
+            return;
+        }
+        mScrapViews[viewType].add(scrap);
+    }
+
+    /**
+     * @return a scrap view of the given type, or null if there is none
+     */
+    View getScrapView(int viewType) {
+        if (!shouldRecycleViewType(viewType)) {
+            return null;
+        }
+        final ArrayList<View> scrapViews = mScrapViews[viewType];
+        final int size = scrapViews.size();
+        if (size > 0) {
+            return scrapViews.remove(size - 1);
+        }
+        return null;
+    }
+
+    void clear() {
+        for (ArrayList<View> scrapViews : mScrapViews) {
+            scrapViews.clear();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.dodola.bubblecloud;
+
+/**
+ * Fling physics for the scroll offset of a {@link BubbleCloudView}.
+ * <p/>
+ * Inside {@code [-range, range]} the velocity decays exponentially with
+ * {@link #FRICTION}. Outside of it a critically damped spring pulls the offset back to
+ * the nearest bound. {@link #step(long)} integrates against the real frame time, so the
+ * motion does not depend on the display refresh rate.
+ * <p/>
+ * {@link #flingTo} ends the motion on a given point instead: the friction phase is sized to
+ * stop there and the spring takes over for the last few pixels.
+ */
+class BubbleScroller {
+
+    /**
+     * Exponential velocity decay, in 1/s.
+     */
+    private static final float FRICTION = 4f;
+    private static final float SPRING_STIFFNESS = 180f;
+    private static final float SPRING_DAMPING = 2 * (float) Math.sqrt(SPRING_STIFFNESS);
+    /**
+     * Below this speed, in px/s, motion is considered settled.
+     */
+    private static final float REST_VELOCITY = 20f;
+    private static final float REST_DISTANCE = 0.5f;
+    private static final float MAX_STEP = 1 / 120f;
+    private static final float MAX_FRAME = 0.1f;
+    /**
+     * Below this speed, in px/s, a snapping fling hands over from friction to the spring.
+     */
+    private static final float SNAP_HANDOFF_VELOCITY = 120f;
+
+    private float x;
+    private float y;
+    private float velocityX;
+    private float velocityY;
+    private float rangeX;
+    private float rangeY;
+    private long lastFrameNanos;
+    private boolean finished = true;
+    private boolean snapping;
+    private float targetX;
+    private float targetY;
+
+    // result of stepAxis
+    private float axisPosition;
+    private float axisVelocity;
+
+    void setRange(float rangeX, float rangeY) {
+        this.rangeX = rangeX;
+        this.rangeY = rangeY;
+    }
+
+    /**
+     * Starts a fling, or a plain spring-back when the velocity is zero.
+     *
+     * @param nowNanos start time, on the {@link System#nanoTime()} time base
+     */
+    void fling(float startX, float startY, float velocityX, float velocityY, long nowNanos) {
+        this.x = startX;
+        this.y = startY;
+        this.velocityX = velocityX;
+        this.velocityY = velocityY;
+        this.lastFrameNanos = nowNanos;
+        this.finished = false;
+        this.snapping = false;
+    }
+
+    /**
+     * Moves to {@code (targetX, targetY)} and settles exactly there, ignoring the range.
+     */
+    void flingTo(float startX, float startY, float targetX, float targetY, long nowNanos) {
+        fling(startX, startY, (targetX - startX) * FRICTION, (targetY - startY) * FRICTION, nowNanos);
+        this.snapping = true;
+        this.targetX = targetX;
+        this.targetY = targetY;
+    }
+
+    /**
+     * @return where a fling released at {@code position} with {@code velocity} would stop
+     * under friction alone
+     */
+    static float predictEnd(float position, float velocity) {
+        return position + velocity / FRICTION;
+    }
+
+    /**
+     * Advances the motion to {@code frameTimeNanos}.
+     *
+     * @return true while the offset is still moving
+     */
+    boolean step(long frameTimeNanos) {
+        if (finished) {
+            return false;
+        }
+        float dt = Math.min(MAX_FRAME, (frameTimeNanos - lastFrameNanos) / 1e9f);
+        lastFrameNanos = frameTimeNanos;
+        while (dt > 0) {
+            final float h = Math.min(dt, MAX_STEP);
+            if (snapping) {
+                stepAxisTo(x, velocityX, targetX, h);
+            } else {
+                stepAxis(x, velocityX, rangeX, h);
+            }
+            x = axisPosition;
+            velocityX = axisVelocity;
+            if (snapping) {
+                stepAxisTo(y, velocityY, targetY, h);
+            } else {
+                stepAxis(y, velocityY, rangeY, h);
+            }
+            y = axisPosition;
+            velocityY = axisVelocity;
+            dt -= h;
+        }
+
+        final boolean restX = snapping ? settleAt(x, velocityX, targetX) : settle(x, velocityX, rangeX);
+        x = axisPosition;
+        velocityX = axisVelocity;
+        final boolean restY = snapping ? settleAt(y, velocityY, targetY) : settle(y, velocityY, rangeY);
+        y = axisPosition;
+        velocityY = axisVelocity;
+        finished = restX && restY;
+        return !finished;
+    }
+
+    private void stepAxis(float position, float velocity, float range, float dt) {
+        final float bound = Math.max(-range, Math.min(range, position));
+        if (position != bound) {
+            final float acceleration = -SPRING_STIFFNESS * (position - bound) - SPRING_DAMPING * velocity;
+            velocity += acceleration * dt;
+        } else {
+            velocity *= (float) Math.exp(-FRICTION * dt);
+        }
+        axisPosition = position + velocity * dt;
+        axisVelocity = velocity;
+    }
+
+    private void stepAxisTo(float position, float velocity, float target, float dt) {
+        final float distance = target - position;
+        if (Math.abs(velocity) > SNAP_HANDOFF_VELOCITY && (velocity > 0) == (distance > 0)) {
+            velocity *= (float) Math.exp(-FRICTION * dt);
+        } else {
+            velocity += (SPRING_STIFFNESS * distance - SPRING_DAMPING * velocity) * dt;
+        }
+        axisPosition = position + velocity * dt;
+        axisVelocity = velocity;
+    }
+
+    private boolean settleAt(float position, float velocity, float target) {
+        axisPosition = position;
+        axisVelocity = velocity;
+        if (Math.abs(velocity) > REST_VELOCITY || Math.abs(target - position) > REST_DISTANCE) {
+            return false;
+        }
+        axisPosition = target;
+        axisVelocity = 0;
+        return true;
+    }
+
+    private boolean settle(float position, float velocity, float range) {
+        axisPosition = position;
+        axisVelocity = velocity;
+        if (Math.abs(velocity) > REST_VELOCITY) {
+            return false;
+        }
+        final float bound = Math.max(-range, Math.min(range, position));
+        if (position == bound) {
+            axisVelocity = 0;
+            return true;
+        }
+        if (Math.abs(position - bound) < REST_DISTANCE) {
+            axisPosition = bound;
+            axisVelocity = 0;
+            return true;
+        }
+        return false;
+    }
+
+    void abort() {
+        finished = true;
+        velocityX = 0;
+        velocityY = 0;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    float getX() {
+        return x;
+    }
+
+    float getY() {
+        return y;
+    }
+
+    float getVelocityX() {
+        return velocityX;
+    }
+
+    float getVelocityY() {
+        return velocityY;
+    }
+}
@@ -0,0 +1,20 @@
+package com.dodola.bubblecloud;
+
+import android.graphics.Bitmap;
+
+/**
+ * Bitmaps drawn by a {@link BubbleCloudView} in lightweight mode, see
+ * {@link BubbleCloudView#setBubbleSource(BubbleSource)}.
+ */
+public interface BubbleSource {
+
+    int getCount();
+
+    /**
+     * Called for every visible bubble on every frame, so this should only look the bitmap
+     * up, never decode it. The bitmap is center cropped into the bubble circle.
+     *
+     * @return the bitmap of the bubble, or null to draw a placeholder circle
+     */
+    Bitmap getBitmap(int position);
+}
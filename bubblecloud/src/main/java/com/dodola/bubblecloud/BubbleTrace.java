@@ -0,0 +1,42 @@
+package com.dodola.bubblecloud;
+
+/**
+ * Timing hooks of {@link BubbleCloudView}, for profiling a cloud on a real device.
+ * <p/>
+ * Nothing is measured unless a {@link Listener} is set with
+ * {@link BubbleCloudView#setTraceListener(Listener)}; without one every hook costs a
+ * single field check. {@link #ENABLED} follows {@code BuildConfig.DEBUG}, so release builds
+ * of the library drop the hooks at compile time.
+ */
+public final class BubbleTrace {
+
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    /**
+     * Receives one call per traced pass, on the main thread. Implementations should only
+     * record the values; they run inside layout and frame callbacks.
+     */
+    public interface Listener {
+        /**
+         * The sphere projection of {@code bubbles} cells was recomputed.
+         */
+        void onProjection(float millis, int bubbles);
+
+        /**
+         * A layout pass bound, recycled or laid out {@code childrenTouched} children.
+         */
+        void onLayout(float millis, int childrenTouched);
+
+        /**
+         * Transforms of {@code childrenTouched} children were updated without a layout pass.
+         */
+        void onPosition(float millis, int childrenTouched);
+    }
+
+    private BubbleTrace() {
+    }
+
+    static float millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e6f;
+    }
+}
@@ -0,0 +1,48 @@
+package com.dodola.bubblecloud;
+
+/**
+ * Precomputed radial remap of the fisheye sphere used by {@link BubbleLayoutEngine}.
+ * <p/>
+ * The distortion only depends on {@code r / sphereR}, so the table samples the radius
+ * factor ({@code r' / r}) and the depth curve over {@code [0, PI / 2]} once and the engine
+ * interpolates between samples instead of calling the trig and easing functions for every
+ * bubble. As the table is normalized it stays valid when {@code sphereR} changes.
+ */
+public class FisheyeTable {
+
+    public static final int DEFAULT_SIZE = 256;
+
+    final float[] factor;
+    final float[] depth;
+    /**
+     * Multiplier from {@code r / sphereR} to a fractional table index.
+     */
+    final float indexScale;
+    final int last;
+    /**
+     * Upper bound of the relative radius error of the interpolation. Linear interpolation of
+     * the quadratic {@code swing} curve is off by at most {@code 1 / (8 * size^2)}; the bound
+     * adds headroom for float rounding.
+     */
+    final float relativeError;
+
+    public FisheyeTable() {
+        this(DEFAULT_SIZE);
+    }
+
+    public FisheyeTable(int size) {
+        if (size < 2) {
+            throw new IllegalArgumentException("size must be at least 2");
+        }
+        factor = new float[size + 1];
+        depth = new float[size + 1];
+        last = size;
+        indexScale = (float) (size / (Math.PI / 2));
+        relativeError = 1f / (2f * size * size) + 1e-6f;
+        for (int i = 0; i <= size; i++) {
+            final float t = (float) i / size;
+            factor[i] = BubbleLayoutEngine.swing(t, 1.5f, -0.5f, 1f);
+            depth[i] = BubbleLayoutEngine.easeInOutCubic(t, 1f, -0.5f, 1f);
+        }
+    }
+}
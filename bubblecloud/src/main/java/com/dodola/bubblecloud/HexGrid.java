@@ -0,0 +1,143 @@
+package com.dodola.bubblecloud;
+
+/**
+ * Ring-indexed cube coordinates of an unbounded hex lattice.
+ * <p/>
+ * Index 0 is the center cell, ring {@code n} holds the {@code 6 * n} cells that follow it.
+ * Within a ring cells are ordered by {@code q}, then by {@code r}, which is the order the
+ * original nested {@code j, k, l} search produced, so adapter positions keep their cells.
+ * Every lookup is O(1), so a lattice can be generated lazily for any number of items.
+ * <p/>
+ * Coordinates are {@code {q, r, s}} with {@code q + r + s == 0}; {@link BubbleCloudView}
+ * uses {@code q} as the row and {@code r + q / 2} as the column.
+ */
+public final class HexGrid {
+
+    private static int[] sLattice = new int[0];
+
+    private HexGrid() {
+    }
+
+    /**
+     * Returns the packed cube coordinates ({@code q, r, s} per cell) of a lattice with rings
+     * {@code 0..radius}. Because cells are ordered ring by ring, a smaller lattice is a
+     * prefix of a larger one, so a single array is shared by every caller and only
+     * regrown when a larger radius is asked for. The returned array may hold more cells
+     * than requested and must not be modified.
+     */
+    public static synchronized int[] lattice(int radius) {
+        final int cells = cellCount(radius);
+        if (sLattice.length < cells * 3) {
+            final int[] lattice = new int[cells * 3];
+            final int[] cube = new int[3];
+            for (int i = 0; i < cells; i++) {
+                cubeAt(i, cube);
+                lattice[i * 3] = cube[0];
+                lattice[i * 3 + 1] = cube[1];
+                lattice[i * 3 + 2] = cube[2];
+            }
+            sLattice = lattice;
+        }
+        return sLattice;
+    }
+
+    /**
+     * @return number of cells of a lattice with rings {@code 0..radius}
+     */
+    public static int cellCount(int radius) {
+        return 1 + 3 * radius * (radius + 1);
+    }
+
+    /**
+     * @return smallest radius whose lattice holds at least {@code count} cells
+     */
+    public static int radiusFor(int count) {
+        if (count <= 1) {
+            return 0;
+        }
+        return ringOf(count - 1);
+    }
+
+    /**
+     * @return ring the cell at {@code index} belongs to
+     */
+    public static int ringOf(int index) {
+        if (index <= 0) {
+            return 0;
+        }
+        int ring = (int) ((3 + Math.sqrt(12.0 * index - 3)) / 6);
+        // guard against rounding at ring boundaries
+        while (ringStart(ring) > index) {
+            ring--;
+        }
+        while (ringStart(ring + 1) <= index) {
+            ring++;
+        }
+        return ring;
+    }
+
+    /**
+     * @return index of the first cell of {@code ring}
+     */
+    public static int ringStart(int ring) {
+        return ring == 0 ? 0 : 1 + 3 * ring * (ring - 1);
+    }
+
+    /**
+     * Rounds fractional axial coordinates to the cell that contains them and writes its
+     * cube coordinates into {@code out[0..2]}. This is O(1), no cell is visited.
+     */
+    public static void round(float q, float r, int[] out) {
+        final float s = -q - r;
+        int rq = Math.round(q);
+        int rr = Math.round(r);
+        int rs = Math.round(s);
+        final float dq = Math.abs(rq - q);
+        final float dr = Math.abs(rr - r);
+        final float ds = Math.abs(rs - s);
+        // the coordinate with the largest rounding error is the one to rebuild
+        if (dq > dr && dq > ds) {
+            rq = -rr - rs;
+        } else if (dr > ds) {
+            rr = -rq - rs;
+        } else {
+            rs = -rq - rr;
+        }
+        out[0] = rq;
+        out[1] = rr;
+        out[2] = rs;
+    }
+
+    /**
+     * Writes the cube coordinates of the cell at {@code index} into {@code out[0..2]}.
+     */
+    public static void cubeAt(int index, int[] out) {
+        final int ring = ringOf(index);
+        if (ring == 0) {
+            out[0] = 0;
+            out[1] = 0;
+            out[2] = 0;
+            return;
+        }
+        final int offset = index - ringStart(ring);
+        final int q;
+        final int r;
+        if (offset <= ring) {
+            // q == -ring is a whole side, r runs 0..ring
+            q = -ring;
+            r = offset;
+        } else if (offset >= 5 * ring - 1) {
+            // q == ring is the opposite side, r runs -ring..0
+            q = ring;
+            r = offset - 6 * ring + 1;
+        } else {
+            // every q in between crosses the ring twice, once on each flank
+            final int middle = offset - ring - 1;
+            q = middle / 2 - ring + 1;
+            r = (middle & 1) == 0 ? -ring - Math.min(q, 0) : ring - Math.max(q, 0);
+        }
+        out[0] = q;
+        out[1] = r;
+        out[2] = -q - r;
+    }
+}
@@ -29,7 +29,6 @@ import android.os.Environment;
 import android.os.StatFs;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.util.LruCache;
 import android.util.Log;
 
 
@@ -76,12 +75,23 @@ public class ImageCache {
     private static final boolean DEFAULT_INIT_DISK_CACHE_ON_CREATE = false;
 
     private DiskLruCache mDiskLruCache;
-    private LruCache<String, BitmapDrawable> mMemoryCache;
+    private MemoryCache<String, BitmapDrawable> mMemoryCache;
     private ImageCacheParams mCacheParams;
     private final Object mDiskCacheLock = new Object();
     private boolean mDiskCacheStarting = true;
 
     private Set<SoftReference<Bitmap>> mReusableBitmaps;
+    private volatile OnEntryRemovedListener mOnEntryRemovedListener;
+
+    /**
+     * Notified when an entry leaves the memory cache, by eviction or by replacement.
+     */
+    public interface OnEntryRemovedListener {
+        /**
+         * Called on the thread that caused the removal, often a worker thread.
+         */
+        void onEntryRemoved(String key);
+    }
 
     /**
      * Create a new ImageCache object using the specified parameters. This should not be
@@ -155,7 +165,9 @@ public class ImageCache {
                         Collections.synchronizedSet(new HashSet<SoftReference<Bitmap>>());
             }
 
-            mMemoryCache = new LruCache<String, BitmapDrawable>(mCacheParams.memCacheSize) {
+            // Lookups come from the UI thread while decode threads insert, so use a cache
+            // whose reads never wait on a writer
+            mMemoryCache = new StripedLruCache<String, BitmapDrawable>(mCacheParams.memCacheSize) {
 
                 /**
                  * Notify the removed entry that is no longer being cached
@@ -163,6 +175,10 @@ public class ImageCache {
                 @Override
                 protected void entryRemoved(boolean evicted, String key,
                         BitmapDrawable oldValue, BitmapDrawable newValue) {
+                    final OnEntryRemovedListener listener = mOnEntryRemovedListener;
+                    if (listener != null) {
+                        listener.onEntryRemoved(key);
+                    }
                     if (RecyclingBitmapDrawable.class.isInstance(oldValue)) {
                         // The removed entry is a recycling drawable, so notify it
                         // that it has been removed from the memory cache
@@ -199,6 +215,10 @@ public class ImageCache {
         }
     }
 
+    public void setOnEntryRemovedListener(OnEntryRemovedListener listener) {
+        mOnEntryRemovedListener = listener;
+    }
+
     /**
      * Initializes the disk cache.  Note that this includes disk access so this should not be
      * executed on the main/UI thread. By default an ImageCache does not initialize the disk
@@ -193,6 +193,85 @@ public class ImageResizer extends ImageWorker {
         return BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
     }
 
+    /**
+     * Decode a file into level-of-detail bitmaps, largest first. The first level is sampled
+     * down to the requested size and every next level by another power of two, so a view
+     * can draw the smallest level that still covers a bubble on screen.
+     *
+     * @param filename The full path of the file to decode
+     * @param reqSize The requested width and height of the first level
+     * @param levelCount The maximum number of levels to decode
+     * @param cache The ImageCache used to find candidate bitmaps for use with inBitmap
+     * @return The decoded levels, or null if the file could not be decoded
+     */
+    public static Bitmap[] decodeSampledBitmapLevelsFromFile(String filename,
+            int reqSize, int levelCount, ImageCache cache) {
+
+        // Decode the bounds once for all levels
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(filename, options);
+        final int width = options.outWidth;
+        final int height = options.outHeight;
+        final int inSampleSize = calculateInSampleSize(options, reqSize, reqSize);
+
+        final Bitmap[] levels = new Bitmap[levelCount];
+        int count = 0;
+        options.inJustDecodeBounds = false;
+        for (int level = 0; level < levelCount; level++) {
+            options.inSampleSize = inSampleSize << level;
+            if (level > 0 && (width / options.inSampleSize < 1 || height / options.inSampleSize < 1)) {
+                break;
+            }
+            options.inBitmap = null;
+            if (Utils.hasHoneycomb()) {
+                addInBitmapOptions(options, cache);
+            }
+            final Bitmap bitmap = BitmapFactory.decodeFile(filename, options);
+            if (bitmap == null) {
+                break;
+            }
+            levels[count++] = bitmap;
+        }
+        return trimLevels(levels, count);
+    }
+
+    /**
+     * Build level-of-detail bitmaps from a bitmap that is already in memory, such as an
+     * application icon. Every level halves the previous one.
+     *
+     * @param source The bitmap used as the first level
+     * @param levelCount The maximum number of levels, including the source
+     * @return The levels, largest first
+     */
+    public static Bitmap[] createBitmapLevels(Bitmap source, int levelCount) {
+        final Bitmap[] levels = new Bitmap[levelCount];
+        levels[0] = source;
+        int count = 1;
+        for (int level = 1; level < levelCount; level++) {
+            final Bitmap previous = levels[level - 1];
+            final int width = previous.getWidth() / 2;
+            final int height = previous.getHeight() / 2;
+            if (width < 1 || height < 1) {
+                break;
+            }
+            levels[count++] = Bitmap.createScaledBitmap(previous, width, height, true);
+        }
+        return trimLevels(levels, count);
+    }
+
+    private static Bitmap[] trimLevels(Bitmap[] levels, int count) {
+        if (count == 0) {
+            return null;
+        }
+        if (count == levels.length) {
+            return levels;
+        }
+        final Bitmap[] trimmed = new Bitmap[count];
+        System.arraycopy(levels, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
     @TargetApi(Build.VERSION_CODES.HONEYCOMB)
     private static void addInBitmapOptions(BitmapFactory.Options options, ImageCache cache) {
         //BEGIN_INCLUDE(add_bitmap_options)
@@ -30,6 +30,8 @@ import android.util.Log;
 import android.widget.ImageView;
 
 import com.dodola.bubblecloud.BuildConfig;
+import com.dodola.bubblecloud.utils.FadeInAnimator;
+import com.dodola.bubblecloud.utils.ImageResultBatcher;
 
 import java.lang.ref.WeakReference;
 
@@ -42,10 +44,24 @@ public abstract class ImageWorker {
     private static final String TAG = "ImageWorker";
     private static final int FADE_IN_TIME = 200;
 
+    /**
+     * Fades loaded images in by animating the alpha of the ImageView on a shared clock.
+     * Allocates nothing per image and leaves no extra layer behind, but the loading image
+     * disappears when the fade starts. Not for ImageViews whose alpha is set elsewhere, such
+     * as item views of a {@link com.dodola.bubblecloud.BubbleCloudView}.
+     */
+    public static final int FADE_MODE_ALPHA = 0;
+    /**
+     * Cross-fades from the loading image with a {@link TransitionDrawable} per image, which
+     * stays in place until the view is rebound. The default.
+     */
+    public static final int FADE_MODE_TRANSITION = 1;
+
     private ImageCache mImageCache;
     private ImageCache.ImageCacheParams mImageCacheParams;
     private Bitmap mLoadingBitmap;
     private boolean mFadeInBitmap = true;
+    private int mFadeMode = FADE_MODE_TRANSITION;
     private boolean mExitTasksEarly = false;
     protected boolean mPauseWork = false;
     private final Object mPauseWorkLock = new Object();
@@ -83,6 +99,9 @@ public abstract class ImageWorker {
             value = mImageCache.getBitmapFromMemCache(String.valueOf(data));
         }
 
+        // A fade from the previous binding must not carry over to this one
+        FadeInAnimator.getInstance().cancel(imageView);
+
         if (value != null) {
             // Bitmap found in memory cache
             imageView.setImageDrawable(value);
@@ -154,6 +173,15 @@ public abstract class ImageWorker {
         mFadeInBitmap = fadeIn;
     }
 
+    /**
+     * Selects how images fade in, {@link #FADE_MODE_TRANSITION} by default.
+     *
+     * @param fadeMode {@link #FADE_MODE_ALPHA} or {@link #FADE_MODE_TRANSITION}
+     */
+    public void setImageFadeMode(int fadeMode) {
+        mFadeMode = fadeMode;
+    }
+
     public void setExitTasksEarly(boolean exitTasksEarly) {
         mExitTasksEarly = exitTasksEarly;
         setPauseWork(false);
@@ -238,9 +266,11 @@ public abstract class ImageWorker {
     /**
      * The actual AsyncTask that will asynchronously process the image.
      */
-    private class BitmapWorkerTask extends AsyncTask<Void, Void, BitmapDrawable> {
+    private class BitmapWorkerTask extends AsyncTask<Void, Void, BitmapDrawable>
+            implements ImageResultBatcher.Result {
         private Object mData;
         private final WeakReference<ImageView> imageViewReference;
+        private BitmapDrawable mResult;
 
         public BitmapWorkerTask(Object data, ImageView imageView) {
             mData = data;
@@ -317,7 +347,8 @@ public abstract class ImageWorker {
         }
 
         /**
-         * Once the image is processed, associates it to the imageView
+         * Once the image is processed, queues it to be associated to the imageView on the next
+         * frame, together with every other load that finished in the meantime
          */
         @Override
         protected void onPostExecute(BitmapDrawable value) {
@@ -327,16 +358,28 @@ public abstract class ImageWorker {
                 value = null;
             }
 
-            final ImageView imageView = getAttachedImageView();
-            if (value != null && imageView != null) {
-                if (BuildConfig.DEBUG) {
-                    Log.d(TAG, "onPostExecute - setting bitmap");
-                }
-                setImageDrawable(imageView, value);
+            if (value != null && getAttachedImageView() != null) {
+                mResult = value;
+                ImageResultBatcher.getInstance().post(this);
             }
             //END_INCLUDE(complete_background_work)
         }
 
+        @Override
+        public void applyResult() {
+            final BitmapDrawable value = mResult;
+            mResult = null;
+            // the view may have been rebound or the task cancelled since onPostExecute
+            final ImageView imageView = getAttachedImageView();
+            if (isCancelled() || mExitTasksEarly || imageView == null) {
+                return;
+            }
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "applyResult - setting bitmap");
+            }
+            setImageDrawable(imageView, value);
+        }
+
         @Override
         protected void onCancelled(BitmapDrawable value) {
             super.onCancelled(value);
@@ -389,7 +432,10 @@ public abstract class ImageWorker {
      * @param drawable
      */
     private void setImageDrawable(ImageView imageView, Drawable drawable) {
-        if (mFadeInBitmap) {
+        if (mFadeInBitmap && mFadeMode == FADE_MODE_ALPHA) {
+            imageView.setImageDrawable(drawable);
+            FadeInAnimator.getInstance().fadeIn(imageView, FADE_IN_TIME);
+        } else if (mFadeInBitmap) {
             // Transition drawable with a transparent drawable and the final drawable
             final TransitionDrawable td =
                     new TransitionDrawable(new Drawable[]{
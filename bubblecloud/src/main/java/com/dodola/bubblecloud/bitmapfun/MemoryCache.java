@@ -0,0 +1,32 @@
+package com.dodola.bubblecloud.bitmapfun;
+
+/**
+ * The memory cache behind {@link ImageCache}. Implementations must be safe to use from the
+ * main thread and the worker threads at the same time.
+ */
+public interface MemoryCache<K, V> {
+
+    /**
+     * @return the cached value for {@code key}, or null
+     */
+    V get(K key);
+
+    /**
+     * Caches {@code value} for {@code key}, evicting other entries as needed.
+     *
+     * @return the value previously cached for {@code key}, or null
+     */
+    V put(K key, V value);
+
+    /**
+     * Removes every entry.
+     */
+    void evictAll();
+
+    /**
+     * @return the combined size of the cached entries, in the units of the implementation
+     */
+    int size();
+
+    int maxSize();
+}
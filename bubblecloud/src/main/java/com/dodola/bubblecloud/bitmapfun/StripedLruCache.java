@@ -0,0 +1,267 @@
+package com.dodola.bubblecloud.bitmapfun;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link MemoryCache} whose reads never block, with the extension points of
+ * {@link android.support.v4.util.LruCache}.
+ * <p/>
+ * Keys are spread over a power of two number of stripes, each owning an equal share of the
+ * maximum size. A stripe keeps its entries in a {@link ConcurrentHashMap}, so {@link #get}
+ * takes no lock and only marks the entry as referenced. Writers lock their own stripe and
+ * evict with the CLOCK policy: the oldest entry is dropped unless it was read since the
+ * last sweep, in which case it gets a second chance at the back of the queue. This
+ * approximates LRU without reordering anything on reads, so the main thread never waits
+ * for a decode thread that is inserting a bitmap.
+ * <p/>
+ * {@link #entryRemoved} is called after the stripe lock is released.
+ */
+public class StripedLruCache<K, V> implements MemoryCache<K, V> {
+
+    private static final int DEFAULT_STRIPES = 4;
+
+    private final Stripe<K, V>[] mStripes;
+    private final int mMaxSize;
+
+    /**
+     * @param maxSize maximum combined {@link #sizeOf} of the entries
+     */
+    public StripedLruCache(int maxSize) {
+        this(maxSize, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes number of independently locked stripes, rounded up to a power of two
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public StripedLruCache(int maxSize, int stripes) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        int count = 1;
+        while (count < stripes) {
+            count <<= 1;
+        }
+        mMaxSize = maxSize;
+        mStripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            // spread the remainder so the stripe budgets add up to maxSize
+            mStripes[i] = new Stripe<K, V>(maxSize / count + (i < maxSize % count ? 1 : 0));
+        }
+    }
+
+    @Override
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        final Node<K, V> node = stripeFor(key).map.get(key);
+        if (node == null) {
+            return null;
+        }
+        node.referenced = true;
+        return node.value;
+    }
+
+    @Override
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        final Stripe<K, V> stripe = stripeFor(key);
+        final Node<K, V> node = new Node<K, V>(key, value, safeSizeOf(key, value));
+        final Node<K, V> previous;
+        ArrayList<Node<K, V>> evicted;
+        synchronized (stripe) {
+            previous = stripe.map.put(key, node);
+            stripe.size += node.size;
+            stripe.queue.add(node);
+            if (previous != null) {
+                stripe.size -= previous.size;
+                stripe.discard(previous);
+            }
+            evicted = stripe.trimToSize(stripe.maxSize);
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous.value, value);
+        }
+        notifyEvicted(evicted);
+        return previous != null ? previous.value : null;
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}, or null
+     */
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        final Stripe<K, V> stripe = stripeFor(key);
+        final Node<K, V> previous;
+        synchronized (stripe) {
+            previous = stripe.map.remove(key);
+            if (previous != null) {
+                stripe.size -= previous.size;
+                stripe.discard(previous);
+            }
+        }
+        if (previous == null) {
+            return null;
+        }
+        entryRemoved(false, key, previous.value, null);
+        return previous.value;
+    }
+
+    @Override
+    public final void evictAll() {
+        for (Stripe<K, V> stripe : mStripes) {
+            final ArrayList<Node<K, V>> evicted;
+            synchronized (stripe) {
+                evicted = stripe.trimToSize(-1);
+            }
+            notifyEvicted(evicted);
+        }
+    }
+
+    @Override
+    public final int size() {
+        int size = 0;
+        for (Stripe<K, V> stripe : mStripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public final int maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Called for entries that have been evicted, removed or replaced, without holding a lock.
+     *
+     * @param evicted  true if the entry is being removed to make space, false if the removal
+     *                 was caused by a {@link #put} or {@link #remove}
+     * @param newValue the new value for {@code key} if it was replaced, null otherwise
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    /**
+     * Returns the size of the entry in user-defined units, 1 by default. The size of an entry
+     * must not change while it is in the cache.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        final int size = sizeOf(key, value);
+        if (size < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return size;
+    }
+
+    private void notifyEvicted(ArrayList<Node<K, V>> evicted) {
+        if (evicted == null) {
+            return;
+        }
+        for (int i = 0, n = evicted.size(); i < n; i++) {
+            final Node<K, V> node = evicted.get(i);
+            entryRemoved(true, node.key, node.value, null);
+        }
+    }
+
+    private Stripe<K, V> stripeFor(K key) {
+        final int h = key.hashCode();
+        return mStripes[(h ^ (h >>> 16)) & (mStripes.length - 1)];
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final int size;
+        /**
+         * Set by readers without a lock, cleared by the CLOCK sweep.
+         */
+        volatile boolean referenced;
+        /**
+         * Replaced or removed but still queued, guarded by the stripe.
+         */
+        boolean dead;
+
+        Node(K key, V value, int size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    private static final class Stripe<K, V> {
+        final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<K, Node<K, V>>();
+        /**
+         * Live entries in insertion order, plus dead ones that are dropped lazily.
+         */
+        final ArrayDeque<Node<K, V>> queue = new ArrayDeque<Node<K, V>>();
+        final int maxSize;
+        int size;
+        int deadCount;
+
+        Stripe(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        void discard(Node<K, V> node) {
+            node.dead = true;
+            // keep replaced nodes from piling up in a stripe that never evicts
+            if (++deadCount > map.size()) {
+                final Iterator<Node<K, V>> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().dead) {
+                        iterator.remove();
+                    }
+                }
+                deadCount = 0;
+            }
+        }
+
+        /**
+         * Evicts until the size is at most {@code maxSize}, -1 evicts everything.
+         *
+         * @return the evicted nodes, or null if there were none
+         */
+        ArrayList<Node<K, V>> trimToSize(int maxSize) {
+            ArrayList<Node<K, V>> evicted = null;
+            while (size > maxSize || (maxSize < 0 && !queue.isEmpty())) {
+                final Node<K, V> node = queue.poll();
+                if (node == null) {
+                    break;
+                }
+                if (node.dead) {
+                    deadCount--;
+                    continue;
+                }
+                if (node.referenced && maxSize >= 0) {
+                    node.referenced = false;
+                    queue.add(node);
+                    continue;
+                }
+                map.remove(node.key);
+                size -= node.size;
+                if (evicted == null) {
+                    evicted = new ArrayList<Node<K, V>>();
+                }
+                evicted.add(node);
+            }
+            return evicted;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.dodola.bubblecloud.utils;
+
+import android.view.View;
+
+/**
+ * Fades views in through {@link View#setAlpha(float)} on one shared frame clock.
+ * <p/>
+ * All running fades advance in the same {@link FrameScheduler} callback, and the views are kept
+ * in reused arrays, so starting a fade allocates nothing. A view ends at alpha 1 and is dropped
+ * from the clock; it needs no extra drawable layer or compositing afterwards. The alpha belongs
+ * to the animator while a fade runs, so views whose alpha is animated elsewhere, such as the
+ * direct children of a {@link com.dodola.bubblecloud.BubbleCloudView}, should not be faded.
+ * <p/>
+ * Only used from the main thread.
+ */
+public class FadeInAnimator implements FrameScheduler.Callback {
+
+    private static final long UNSET = -1;
+
+    private static FadeInAnimator sInstance;
+
+    private final FrameScheduler mScheduler = new FrameScheduler(this);
+    private View[] mViews = new View[16];
+    private long[] mStartNanos = new long[16];
+    private long[] mDurationNanos = new long[16];
+    private int mCount;
+
+    public static FadeInAnimator getInstance() {
+        if (sInstance == null) {
+            sInstance = new FadeInAnimator();
+        }
+        return sInstance;
+    }
+
+    private FadeInAnimator() {
+    }
+
+    /**
+     * Fades {@code view} in from transparent, restarting a fade that is already running on it.
+     * Its clock starts on the next frame.
+     */
+    public void fadeIn(View view, int durationMillis) {
+        int index = indexOf(view);
+        if (index < 0) {
+            if (mCount == mViews.length) {
+                grow();
+            }
+            index = mCount++;
+            mViews[index] = view;
+        }
+        mStartNanos[index] = UNSET;
+        mDurationNanos[index] = Math.max(1, durationMillis) * 1000000L;
+        view.setAlpha(0f);
+        mScheduler.postFrame();
+    }
+
+    /**
+     * Ends a running fade on {@code view} and makes it opaque. Does nothing if it is not fading.
+     */
+    public void cancel(View view) {
+        final int index = indexOf(view);
+        if (index >= 0) {
+            view.setAlpha(1f);
+            removeAt(index);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        for (int i = mCount - 1; i >= 0; i--) {
+            if (mStartNanos[i] == UNSET) {
+                mStartNanos[i] = frameTimeNanos;
+            }
+            final float t = (float) (frameTimeNanos - mStartNanos[i]) / mDurationNanos[i];
+            if (t >= 1) {
+                mViews[i].setAlpha(1f);
+                removeAt(i);
+            } else {
+                mViews[i].setAlpha(t);
+            }
+        }
+        if (mCount > 0) {
+            mScheduler.postFrame();
+        }
+    }
+
+    private int indexOf(View view) {
+        for (int i = 0; i < mCount; i++) {
+            if (mViews[i] == view) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        final int last = --mCount;
+        mViews[index] = mViews[last];
+        mStartNanos[index] = mStartNanos[last];
+        mDurationNanos[index] = mDurationNanos[last];
+        mViews[last] = null;
+        if (mCount == 0) {
+            mScheduler.cancel();
+        }
+    }
+
+    private void grow() {
+        final int capacity = mViews.length * 2;
+        final View[] views = new View[capacity];
+        final long[] start = new long[capacity];
+        final long[] duration = new long[capacity];
+        System.arraycopy(mViews, 0, views, 0, mCount);
+        System.arraycopy(mStartNanos, 0, start, 0, mCount);
+        System.arraycopy(mDurationNanos, 0, duration, 0, mCount);
+        mViews = views;
+        mStartNanos = start;
+        mDurationNanos = duration;
+    }
+}
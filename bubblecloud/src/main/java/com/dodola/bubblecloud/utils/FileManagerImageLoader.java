@@ -6,9 +6,13 @@ import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.annotation.TargetApi;
 import android.app.Application;
@@ -41,6 +45,11 @@ public class FileManagerImageLoader {
 
     private SparseArray<SoftReference<Bitmap>> defaultBitmap = new SparseArray<SoftReference<Bitmap>>();
     public static final Executor DUAL_THREAD_EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    /**
+     * 图标解码线程池, 按优先级执行: 数值小的先加载, 见 {@link com.dodola.bubblecloud.BubbleCloudView#getLoadPriority}.
+     * 暂停恢复后先加载离中心近的图标
+     */
+    private static final PriorityExecutor ICON_EXECUTOR = new PriorityExecutor(Runtime.getRuntime().availableProcessors());
     public boolean isExitApp = true; // 是否退出app
     private static final int MINI_KIND = 1;
     // private static final int FULL_SCREEN_KIND = 2;
@@ -52,6 +61,26 @@ public class FileManagerImageLoader {
     private Context mContext;
     protected static ImageCache mImageCache;
     private static FileManagerImageLoader instance;
+    /**
+     * 图标缩略图的级数, 每一级是上一级的一半
+     */
+    public static final int ICON_LEVELS = 3;
+    private final HashSet<String> mPendingLevels = new HashSet<String>();
+    /**
+     * 已组装好的多级缩略图, 任何一级被移出内存缓存时失效, 避免每帧重新查找和分配
+     */
+    private final ConcurrentHashMap<String, Bitmap[]> mIconLevels = new ConcurrentHashMap<String, Bitmap[]>();
+    private final AtomicInteger mLevelRemovals = new AtomicInteger();
+    private final HashMap<String, String[]> mLevelKeys = new HashMap<String, String[]>();
+    /**
+     * 排队或正在执行的预取任务, 以及 {@link #addTask} 的解码任务, 同一个图标只解码一次
+     */
+    private final HashMap<String, PrefetchTask> mPendingPrefetch = new HashMap<String, PrefetchTask>();
+    private final HashSet<String> mPendingLoads = new HashSet<String>();
+
+    public interface OnIconLevelsLoadedListener {
+        void onIconLevelsLoaded(String info, Bitmap[] levels);
+    }
 
     public synchronized static FileManagerImageLoader getInstance() {
         return instance;
@@ -64,6 +93,13 @@ public class FileManagerImageLoader {
                     new ImageCache.ImageCacheParams(appContext, Environment.getExternalStorageDirectory().getAbsolutePath());
             cacheParams.setMemCacheSizePercent(0.25f);
             mImageCache = ImageCache.getInstance(cacheParams);
+            final FileManagerImageLoader loader = instance;
+            mImageCache.setOnEntryRemovedListener(new ImageCache.OnEntryRemovedListener() {
+                @Override
+                public void onEntryRemoved(String key) {
+                    loader.onCacheEntryRemoved(key);
+                }
+            });
         }
     }
 
@@ -87,6 +123,7 @@ public class FileManagerImageLoader {
             // mImageCache.clearMemoryCache();
             ThreadPoolExecutor ex = (ThreadPoolExecutor) DUAL_THREAD_EXECUTOR;
             ex.getQueue().clear();
+            ICON_EXECUTOR.clear();
         } catch (Exception ex) {
 
         }
@@ -97,6 +134,14 @@ public class FileManagerImageLoader {
         setPauseWork(false);
     }
 
+    /**
+     * 按当前位置重新排列还在排队的 {@link #addTask} 任务, 比如列表停下后. prioritizer 收到的
+     * key 是传给 addTask 的 ImageView; 预取和多级缩略图任务保持原来的优先级
+     */
+    public void reprioritize(PriorityExecutor.Prioritizer prioritizer) {
+        ICON_EXECUTOR.reprioritize(prioritizer);
+    }
+
     public void setPauseWork(boolean pauseWork) {
         synchronized (mPauseWorkLock) {
             mPauseWork = pauseWork;
@@ -106,8 +151,10 @@ public class FileManagerImageLoader {
         }
     }
 
-    private class BitmapWorkerTask extends AsyncTask<Object, Void, BitmapDrawable> {
+    private class BitmapWorkerTask extends AsyncTask<Object, Void, BitmapDrawable>
+            implements ImageResultBatcher.Result {
         private Object data;
+        private BitmapDrawable result;
         private boolean isBig;
         private int mWidth, mHeight;
         private final WeakReference<ImageView> imageViewReference;
@@ -145,6 +192,14 @@ public class FileManagerImageLoader {
             }
             String info = (String) params[0];
 
+            if (info != null && mImageCache != null && !isBig) {
+                // 预取任务可能已经解码好了
+                final BitmapDrawable cached = mImageCache.getBitmapFromMemCache(info);
+                if (cached != null && cached.getBitmap() != null && !cached.getBitmap().isRecycled()) {
+                    return cached;
+                }
+            }
+
             RecyclingBitmapDrawable drawable = null;
 
             if (info != null) {
@@ -168,23 +223,37 @@ public class FileManagerImageLoader {
 
         @Override
         protected void onPostExecute(BitmapDrawable value) {
+            mPendingLoads.remove(data);
             if (isCancelled() || mExitTasksEarly) {
                 value = null;
             }
 
+            if (value != null && getAttachedImageView() != null) {
+                // 同时完成的图标在下一帧一起设置
+                result = value;
+                ImageResultBatcher.getInstance().post(this);
+            }
+        }
+
+        @Override
+        public void applyResult() {
+            final BitmapDrawable value = result;
+            result = null;
             final ImageView imageView = getAttachedImageView();
             final View frameView = getAttachedFrameView();
-            if (value != null && imageView != null) {
-                setImageDrawable(imageView, value);
-                if (frameView != null) {
-                    frameView.setVisibility(View.GONE);
-                }
+            if (isCancelled() || mExitTasksEarly || imageView == null) {
+                return;
+            }
+            setImageDrawable(imageView, value);
+            if (frameView != null) {
+                frameView.setVisibility(View.GONE);
             }
         }
 
         @Override
         protected void onCancelled(BitmapDrawable value) {
             super.onCancelled(value);
+            mPendingLoads.remove(data);
             synchronized (mPauseWorkLock) {
                 mPauseWorkLock.notifyAll();
             }
@@ -215,6 +284,234 @@ public class FileManagerImageLoader {
         }
     }
 
+    private class IconLevelsTask extends AsyncTask<Object, Void, Bitmap[]> {
+        private final String info;
+        private final OnIconLevelsLoadedListener listener;
+
+        IconLevelsTask(String info, OnIconLevelsLoadedListener listener) {
+            this.info = info;
+            this.listener = listener;
+        }
+
+        @Override
+        protected Bitmap[] doInBackground(Object... params) {
+            synchronized (mPauseWorkLock) {
+                while (mPauseWork && !isCancelled()) {
+                    try {
+                        mPauseWorkLock.wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+            if (isCancelled() || mExitTasksEarly) {
+                return null;
+            }
+            final RecyclingBitmapDrawable drawable;
+            try {
+                drawable = getIconDrawable(info);
+            } catch (Throwable ex) {
+                return null;
+            }
+            if (drawable == null || drawable.getBitmap() == null) {
+                return null;
+            }
+            final Bitmap[] levels = ImageResizer.createBitmapLevels(drawable.getBitmap(), ICON_LEVELS);
+            if (mImageCache != null) {
+                for (int level = 0; level < levels.length; level++) {
+                    mImageCache.addBitmapToCache(levelKey(info, level), new RecyclingBitmapDrawable(mResources, levels[level]));
+                }
+            }
+            return levels;
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap[] levels) {
+            mPendingLevels.remove(info);
+            if (levels != null && !mExitTasksEarly && listener != null) {
+                listener.onIconLevelsLoaded(info, levels);
+            }
+        }
+
+        @Override
+        protected void onCancelled(Bitmap[] levels) {
+            super.onCancelled(levels);
+            mPendingLevels.remove(info);
+            synchronized (mPauseWorkLock) {
+                mPauseWorkLock.notifyAll();
+            }
+        }
+    }
+
+    private class PrefetchTask extends AsyncTask<Object, Void, Void> {
+        private final String info;
+
+        PrefetchTask(String info) {
+            this.info = info;
+        }
+
+        @Override
+        protected Void doInBackground(Object... params) {
+            synchronized (mPauseWorkLock) {
+                while (mPauseWork && !isCancelled()) {
+                    try {
+                        mPauseWorkLock.wait();
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+            if (isCancelled() || mExitTasksEarly || mImageCache == null) {
+                return null;
+            }
+            final BitmapDrawable cached = mImageCache.getBitmapFromMemCache(info);
+            if (cached != null && cached.getBitmap() != null && !cached.getBitmap().isRecycled()) {
+                return null;
+            }
+            final RecyclingBitmapDrawable drawable;
+            try {
+                drawable = getIconDrawable(info);
+            } catch (Throwable ex) {
+                return null;
+            }
+            if (drawable != null) {
+                mImageCache.addBitmapToCache(info, drawable);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            removePendingPrefetch(this);
+        }
+
+        @Override
+        protected void onCancelled(Void result) {
+            super.onCancelled(result);
+            removePendingPrefetch(this);
+            synchronized (mPauseWorkLock) {
+                mPauseWorkLock.notifyAll();
+            }
+        }
+    }
+
+    private void removePendingPrefetch(PrefetchTask task) {
+        if (mPendingPrefetch.get(task.info) == task) {
+            mPendingPrefetch.remove(task.info);
+        }
+    }
+
+    /**
+     * 按优先级预取图标到内存缓存, 之后 {@link #addTask} 会直接命中缓存. 需要在主线程调用.
+     * 已经在预取或由 {@link #addTask} 解码的图标会跳过.
+     *
+     * @param priorities 每个图标的优先级, 数值小的先加载
+     * @param count      只预取 infos 的前 count 个
+     */
+    public void prefetch(String[] infos, int[] priorities, int count) {
+        if (mImageCache == null || mExitTasksEarly) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            final String info = infos[i];
+            if (TextUtils.isEmpty(info) || mPendingLoads.contains(info) || mPendingPrefetch.containsKey(info)
+                    || mImageCache.getBitmapFromMemCache(info) != null) {
+                continue;
+            }
+            final PrefetchTask task = new PrefetchTask(info);
+            mPendingPrefetch.put(info, task);
+            task.executeOnExecutor(ICON_EXECUTOR.withPriority(priorities[i]), info);
+        }
+    }
+
+    private static String levelKey(String info, int level) {
+        return info + "#" + level;
+    }
+
+    /**
+     * 任何线程都可能调用, 某一级被移出缓存时丢掉组装好的数组
+     */
+    private void onCacheEntryRemoved(String key) {
+        final int separator = key.lastIndexOf('#');
+        if (separator > 0) {
+            mLevelRemovals.incrementAndGet();
+            mIconLevels.remove(key.substring(0, separator));
+        }
+    }
+
+    private String[] getLevelKeys(String info) {
+        String[] keys = mLevelKeys.get(info);
+        if (keys == null) {
+            keys = new String[ICON_LEVELS];
+            for (int level = 0; level < ICON_LEVELS; level++) {
+                keys[level] = levelKey(info, level);
+            }
+            mLevelKeys.put(info, keys);
+        }
+        return keys;
+    }
+
+    private Bitmap getCachedBitmap(String key) {
+        final BitmapDrawable drawable = mImageCache.getBitmapFromMemCache(key);
+        if (drawable == null || drawable.getBitmap() == null || drawable.getBitmap().isRecycled()) {
+            return null;
+        }
+        return drawable.getBitmap();
+    }
+
+    private Bitmap[] getCachedIconLevels(String info) {
+        if (mImageCache == null) {
+            return null;
+        }
+        final String[] keys = getLevelKeys(info);
+        final Bitmap largest = getCachedBitmap(keys[0]);
+        if (largest == null) {
+            return null;
+        }
+        final Bitmap[] levels = new Bitmap[ICON_LEVELS];
+        levels[0] = largest;
+        int count = 1;
+        while (count < ICON_LEVELS && (levels[count] = getCachedBitmap(keys[count])) != null) {
+            count++;
+        }
+        if (count < ICON_LEVELS) {
+            // 小级别已被移出缓存时只返回剩下的大级别
+            final Bitmap[] trimmed = new Bitmap[count];
+            System.arraycopy(levels, 0, trimmed, 0, count);
+            return trimmed;
+        }
+        return levels;
+    }
+
+    /**
+     * 获取图标的多级缩略图, 从大到小排列, 供 {@link com.dodola.bubblecloud.BubbleLevelSource} 使用.
+     * 内存缓存中没有时返回 null 并在后台生成, 完成后在主线程回调 listener.
+     */
+    public Bitmap[] getIconLevels(String info, OnIconLevelsLoadedListener listener) {
+        return getIconLevels(info, listener, PriorityExecutor.DEFAULT_PRIORITY);
+    }
+
+    /**
+     * @param priority 需要生成时的加载优先级, 数值小的先加载
+     */
+    public Bitmap[] getIconLevels(String info, OnIconLevelsLoadedListener listener, int priority) {
+        if (TextUtils.isEmpty(info)) {
+            return null;
+        }
+        Bitmap[] levels = mIconLevels.get(info);
+        if (levels != null || mPendingLevels.contains(info)) {
+            return levels;
+        }
+        final int removals = mLevelRemovals.get();
+        levels = getCachedIconLevels(info);
+        if (levels == null) {
+            mPendingLevels.add(info);
+            new IconLevelsTask(info, listener).executeOnExecutor(ICON_EXECUTOR.withPriority(priority), info);
+        } else if (removals == mLevelRemovals.get()) {
+            // 组装期间有级别被移出时不保存, 下次重新组装
+            mIconLevels.put(info, levels);
+        }
+        return levels;
+    }
+
     private RecyclingBitmapDrawable getIconDrawable(String info) {
 
         Drawable apkIcon = Utils.getApkIcon(mContext, info);
@@ -277,6 +574,16 @@ public class FileManagerImageLoader {
      * 添加任务
      */
     public void addTask(String info, ImageView imgIcon, Bitmap defaultBitmap, int width, int height, boolean isBig) {
+        addTask(info, imgIcon, defaultBitmap, width, height, isBig, PriorityExecutor.DEFAULT_PRIORITY);
+    }
+
+    /**
+     * 添加任务
+     *
+     * @param priority 加载优先级, 数值小的先加载, 气泡可以用 {@link com.dodola.bubblecloud.BubbleCloudView#getLoadPriority}
+     */
+    public void addTask(String info, ImageView imgIcon, Bitmap defaultBitmap, int width, int height, boolean isBig,
+                        int priority) {
 
         if (TextUtils.isEmpty(info) || imgIcon == null)
             return;
@@ -295,7 +602,13 @@ public class FileManagerImageLoader {
             workerTask.mHeight = height;
             final AsyncDrawable asyncDrawable = new AsyncDrawable(mResources, defaultBitmap, workerTask);
             imgIcon.setImageDrawable(asyncDrawable);
-            workerTask.executeOnExecutor(DUAL_THREAD_EXECUTOR, info);
+            // 还在排队的预取交给这个任务来做, 避免同一个图标解码两次
+            final PrefetchTask prefetch = mPendingPrefetch.remove(info);
+            if (prefetch != null) {
+                prefetch.cancel(false);
+            }
+            mPendingLoads.add(info);
+            workerTask.executeOnExecutor(ICON_EXECUTOR.withPriority(priority, imgIcon), info);
         }
     }
 
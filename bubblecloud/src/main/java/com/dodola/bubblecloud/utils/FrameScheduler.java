@@ -0,0 +1,95 @@
+package com.dodola.bubblecloud.utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Runs a callback on the next display frame with the frame time in nanoseconds.
+ * <p/>
+ * Uses {@link Choreographer} on Jelly Bean and newer and falls back to a main thread
+ * {@link Handler} with {@link System#nanoTime()} on older releases. Posting an already
+ * posted scheduler is a no-op, and nothing is allocated per frame.
+ */
+public class FrameScheduler {
+
+    private static final long FALLBACK_FRAME_DELAY = 10;
+
+    public interface Callback {
+        void doFrame(long frameTimeNanos);
+    }
+
+    private final Callback mCallback;
+    private final Object mFrameCallback;
+    private final Runnable mFallbackRunnable;
+    private final Handler mHandler;
+    private boolean mPosted;
+
+    public FrameScheduler(Callback callback) {
+        mCallback = callback;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mFrameCallback = createFrameCallback();
+            mFallbackRunnable = null;
+            mHandler = null;
+        } else {
+            mFrameCallback = null;
+            mFallbackRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    dispatchFrame(System.nanoTime());
+                }
+            };
+            mHandler = new Handler(Looper.getMainLooper());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private Object createFrameCallback() {
+        return new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                dispatchFrame(frameTimeNanos);
+            }
+        };
+    }
+
+    private void dispatchFrame(long frameTimeNanos) {
+        mPosted = false;
+        mCallback.doFrame(frameTimeNanos);
+    }
+
+    /**
+     * Schedules the callback for the next frame. Must be called on the main thread.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void postFrame() {
+        if (mPosted) {
+            return;
+        }
+        mPosted = true;
+        if (mFrameCallback != null) {
+            Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+        } else {
+            mHandler.postDelayed(mFallbackRunnable, FALLBACK_FRAME_DELAY);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void cancel() {
+        if (!mPosted) {
+            return;
+        }
+        mPosted = false;
+        if (mFrameCallback != null) {
+            Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+        } else {
+            mHandler.removeCallbacks(mFallbackRunnable);
+        }
+    }
+
+    public boolean isPosted() {
+        return mPosted;
+    }
+}
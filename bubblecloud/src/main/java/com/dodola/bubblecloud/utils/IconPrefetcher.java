@@ -0,0 +1,45 @@
+package com.dodola.bubblecloud.utils;
+
+import android.widget.Adapter;
+
+import com.dodola.bubblecloud.BubbleCloudView;
+
+/**
+ * Prefetches the icons of a {@link BubbleCloudView} through {@link FileManagerImageLoader}:
+ * the bubbles about to scroll into view, before the adapter binds them, each queued with its
+ * {@link BubbleCloudView#getLoadPriority} so the nearest load first.
+ * <p/>
+ * Expects an adapter whose items are the {@code info} strings passed to
+ * {@link FileManagerImageLoader#addTask}. Set it with
+ * {@link BubbleCloudView#setOnPrefetchListener}.
+ */
+public class IconPrefetcher implements BubbleCloudView.OnPrefetchListener {
+
+    private final FileManagerImageLoader mImageLoader;
+    private String[] mInfos = new String[0];
+    private int[] mPriorities = new int[0];
+
+    public IconPrefetcher(FileManagerImageLoader imageLoader) {
+        mImageLoader = imageLoader;
+    }
+
+    @Override
+    public void onPrefetch(BubbleCloudView<?> view, int[] positions, int count) {
+        final Adapter adapter = view.getAdapter();
+        if (adapter == null) {
+            return;
+        }
+        if (mInfos.length < count) {
+            mInfos = new String[count];
+            mPriorities = new int[count];
+        }
+        final int itemCount = adapter.getCount();
+        for (int i = 0; i < count; i++) {
+            final int position = positions[i];
+            final Object item = position < itemCount ? adapter.getItem(position) : null;
+            mInfos[i] = item instanceof String ? (String) item : null;
+            mPriorities[i] = view.getLoadPriority(position);
+        }
+        mImageLoader.prefetch(mInfos, mPriorities, count);
+    }
+}
@@ -0,0 +1,63 @@
+package com.dodola.bubblecloud.utils;
+
+import java.util.ArrayDeque;
+
+/**
+ * Collects finished image loads and applies them together on the next display frame.
+ * <p/>
+ * Every {@link com.dodola.bubblecloud.bitmapfun.AsyncTask} result arrives as its own main
+ * thread message, so a burst of loads would otherwise set drawables, invalidate and start
+ * fade-ins one message at a time. Batched results are applied in posting order; when a frame
+ * runs over {@link #FRAME_BUDGET_NANOS} the rest waits for the next frame, so a burst of any
+ * size costs a bounded amount of main thread time per frame.
+ * <p/>
+ * Shared by all loaders and only used from the main thread.
+ */
+public class ImageResultBatcher implements FrameScheduler.Callback {
+
+    /**
+     * A finished load. {@link #applyResult()} runs on the main thread and should check that
+     * its target still wants the result, the target may have been rebound since posting.
+     */
+    public interface Result {
+        void applyResult();
+    }
+
+    private static final long FRAME_BUDGET_NANOS = 4 * 1000000L;
+
+    private static ImageResultBatcher sInstance;
+
+    private final ArrayDeque<Result> mPending = new ArrayDeque<Result>();
+    private final FrameScheduler mScheduler = new FrameScheduler(this);
+
+    public static ImageResultBatcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new ImageResultBatcher();
+        }
+        return sInstance;
+    }
+
+    private ImageResultBatcher() {
+    }
+
+    public void post(Result result) {
+        mPending.add(result);
+        mScheduler.postFrame();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        final long start = System.nanoTime();
+        Result result;
+        // always apply at least one result so a slow apply cannot stall the queue
+        while ((result = mPending.poll()) != null) {
+            result.applyResult();
+            if (System.nanoTime() - start > FRAME_BUDGET_NANOS) {
+                break;
+            }
+        }
+        if (!mPending.isEmpty()) {
+            mScheduler.postFrame();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.dodola.bubblecloud.utils;
+
+import android.view.View;
+
+import com.dodola.bubblecloud.BubbleCloudView;
+import com.dodola.bubblecloud.bitmapfun.ImageWorker;
+
+/**
+ * Pauses background image decoding while a {@link BubbleCloudView} moves faster than a
+ * velocity threshold, so decodes do not compete with fling frames, and resumes it as soon
+ * as the cloud slows down or settles.
+ * <p/>
+ * Icons queued through {@link FileManagerImageLoader#addTask} keep the priority their bubble
+ * had when it was bound, near the edge during a fling. On resume and again once the cloud is
+ * idle, the queue is reordered by {@link BubbleCloudView#getLoadPriority} of the bubbles
+ * where they are now, so the icons nearest the center decode first.
+ * <p/>
+ * Works with {@link ImageWorker} and {@link FileManagerImageLoader}. Set it with
+ * {@link BubbleCloudView#setOnScrollListener}; an existing listener can be chained through
+ * the {@code delegate}.
+ */
+public class PauseOnScrollListener implements BubbleCloudView.OnScrollListener {
+
+    /**
+     * Speed, in pixels per second, above which decoding is paused.
+     */
+    public static final float DEFAULT_PAUSE_VELOCITY = 1500f;
+
+    private final ImageWorker mImageWorker;
+    private final FileManagerImageLoader mImageLoader;
+    private final float mPauseVelocity;
+    private final BubbleCloudView.OnScrollListener mDelegate;
+    private boolean mPaused;
+    private BubbleCloudView<?> mView;
+    private final PriorityExecutor.Prioritizer mPrioritizer = new PriorityExecutor.Prioritizer() {
+        @Override
+        public int getPriority(Object key, int priority) {
+            if (!(key instanceof View)) {
+                return priority;
+            }
+            // views that are no longer bound get the lowest priority
+            return mView.getLoadPriority(mView.getPositionForView((View) key));
+        }
+    };
+
+    public PauseOnScrollListener(ImageWorker imageWorker) {
+        this(imageWorker, null, DEFAULT_PAUSE_VELOCITY, null);
+    }
+
+    public PauseOnScrollListener(FileManagerImageLoader imageLoader) {
+        this(null, imageLoader, DEFAULT_PAUSE_VELOCITY, null);
+    }
+
+    /**
+     * @param imageWorker   worker to pause, may be null
+     * @param imageLoader   loader to pause, may be null
+     * @param pauseVelocity speed in pixels per second above which decoding is paused
+     * @param delegate      listener that receives every event as well, may be null
+     */
+    public PauseOnScrollListener(ImageWorker imageWorker, FileManagerImageLoader imageLoader,
+                                 float pauseVelocity, BubbleCloudView.OnScrollListener delegate) {
+        mImageWorker = imageWorker;
+        mImageLoader = imageLoader;
+        mPauseVelocity = pauseVelocity;
+        mDelegate = delegate;
+    }
+
+    @Override
+    public void onScrollStateChanged(BubbleCloudView<?> view, int scrollState) {
+        if (scrollState == BubbleCloudView.SCROLL_STATE_IDLE) {
+            if (!mPaused) {
+                reprioritize(view);
+            }
+            setPaused(false, view);
+        }
+        if (mDelegate != null) {
+            mDelegate.onScrollStateChanged(view, scrollState);
+        }
+    }
+
+    @Override
+    public void onScroll(BubbleCloudView<?> view, float velocityX, float velocityY) {
+        final float speedSquared = velocityX * velocityX + velocityY * velocityY;
+        setPaused(speedSquared > mPauseVelocity * mPauseVelocity, view);
+        if (mDelegate != null) {
+            mDelegate.onScroll(view, velocityX, velocityY);
+        }
+    }
+
+    private void setPaused(boolean paused, BubbleCloudView<?> view) {
+        if (paused == mPaused) {
+            return;
+        }
+        mPaused = paused;
+        if (!paused) {
+            // before the workers wake up, so they take the reordered queue
+            reprioritize(view);
+        }
+        if (mImageWorker != null) {
+            mImageWorker.setPauseWork(paused);
+        }
+        if (mImageLoader != null) {
+            mImageLoader.setPauseWork(paused);
+        }
+    }
+
+    private void reprioritize(BubbleCloudView<?> view) {
+        if (mImageLoader == null) {
+            return;
+        }
+        mView = view;
+        mImageLoader.reprioritize(mPrioritizer);
+        mView = null;
+    }
+}
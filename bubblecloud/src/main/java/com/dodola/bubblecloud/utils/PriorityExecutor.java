@@ -0,0 +1,126 @@
+package com.dodola.bubblecloud.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed thread pool that runs queued work by priority: lower values first, and first in,
+ * first out among equal priorities.
+ * <p/>
+ * {@link #withPriority(int)} returns an {@link Executor} view for a single priority, to pass
+ * to {@code AsyncTask.executeOnExecutor}. Work submitted with a key can be given a new
+ * priority while it waits, see {@link #reprioritize(Prioritizer)}.
+ */
+public class PriorityExecutor implements Executor {
+
+    /**
+     * Priority of work submitted through {@link #execute(Runnable)}, after any explicitly
+     * prioritized work.
+     */
+    public static final int DEFAULT_PRIORITY = Integer.MAX_VALUE;
+
+    /**
+     * Computes the current priority of queued work from the key it was submitted with.
+     */
+    public interface Prioritizer {
+        /**
+         * @param priority the priority the work has now
+         * @return the new priority, lower values run first
+         */
+        int getPriority(Object key, int priority);
+    }
+
+    private final ThreadPoolExecutor mPool;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    public PriorityExecutor(int threads) {
+        mPool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        execute(command, DEFAULT_PRIORITY);
+    }
+
+    public void execute(Runnable command, int priority) {
+        execute(command, priority, null);
+    }
+
+    /**
+     * @param key passed to the {@link Prioritizer} of {@link #reprioritize}, may be null
+     */
+    public void execute(Runnable command, int priority, Object key) {
+        mPool.execute(new Entry(command, priority, key, mSequence.getAndIncrement()));
+    }
+
+    public Executor withPriority(int priority) {
+        return withPriority(priority, null);
+    }
+
+    public Executor withPriority(final int priority, final Object key) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                PriorityExecutor.this.execute(command, priority, key);
+            }
+        };
+    }
+
+    /**
+     * Asks {@code prioritizer} for a new priority of every queued entry that has a key and
+     * puts the entries back in the new order; entries of equal priority keep their order.
+     * Work that already started is not affected.
+     */
+    public void reprioritize(Prioritizer prioritizer) {
+        final ArrayList<Runnable> queued = new ArrayList<Runnable>();
+        mPool.getQueue().drainTo(queued);
+        for (int i = 0; i < queued.size(); i++) {
+            final Entry entry = (Entry) queued.get(i);
+            if (entry.key != null) {
+                entry.priority = prioritizer.getPriority(entry.key, entry.priority);
+            }
+            // the core threads are all started once work queues up, so no new thread is needed
+            mPool.getQueue().offer(entry);
+        }
+    }
+
+    /**
+     * Drops all queued work that has not started yet.
+     */
+    public void clear() {
+        mPool.getQueue().clear();
+    }
+
+    private static final class Entry implements Runnable, Comparable<Entry> {
+        private final Runnable command;
+        private final Object key;
+        private final long sequence;
+        // only changed while the entry is out of the queue
+        private int priority;
+
+        Entry(Runnable command, int priority, Object key, long sequence) {
+            this.command = command;
+            this.priority = priority;
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            command.run();
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
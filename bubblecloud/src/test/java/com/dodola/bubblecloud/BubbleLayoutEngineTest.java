@@ -0,0 +1,204 @@
+package com.dodola.bubblecloud;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BubbleLayoutEngineTest {
+
+    private static final int CELLS = HexGrid.cellCount(3);
+
+    private int[] hexCube;
+    private BubbleLayoutEngine engine;
+
+    @Before
+    public void setUp() {
+        hexCube = HexGrid.lattice(3);
+        engine = new BubbleLayoutEngine(CELLS);
+        engine.setViewport(400, 500, 24);
+        engine.setLattice(hexCube, CELLS);
+    }
+
+    @Test
+    public void centerCellStaysAtOriginWithFullScale() {
+        engine.refresh(200, 86, 0, 0);
+
+        assertEquals(37, engine.getCount());
+        assertEquals(0f, engine.getX(0), 0f);
+        assertEquals(0f, engine.getY(0), 0f);
+        assertEquals(1f, engine.getScale(0), 1e-6f);
+    }
+
+    @Test
+    public void outerCellsShrink() {
+        engine.refresh(200, 86, 0, 0);
+
+        for (int i = 1; i < engine.getCount(); i++) {
+            assertTrue(engine.getScale(i) < engine.getScale(0));
+        }
+    }
+
+    @Test
+    public void refreshReusesBuffers() {
+        engine.refresh(200, 86, 0, 0);
+        final float[] x = engine.x;
+        final float[] scale = engine.scale;
+
+        engine.refresh(200, 86, 15, -7);
+
+        assertSame(x, engine.x);
+        assertSame(scale, engine.scale);
+    }
+
+    @Test
+    public void matchesThePreviousProjection() {
+        final float[] expected = new float[3];
+        for (float hexR = 60; hexR <= 180; hexR += 7) {
+            for (int scrollX = -150; scrollX <= 150; scrollX += 11) {
+                for (int scrollY = -150; scrollY <= 150; scrollY += 13) {
+                    engine.refresh(200, hexR, scrollX, scrollY);
+
+                    for (int i = 0; i < engine.getCount(); i++) {
+                        legacyProject(hexCube[i * 3], hexCube[i * 3 + 1], 200, hexR, scrollX, scrollY,
+                                400, 500, 24, expected);
+                        assertEquals(expected[0], engine.getX(i), 0f);
+                        assertEquals(expected[1], engine.getY(i), 0f);
+                        assertEquals(expected[2], engine.getScale(i), 0f);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void lookupTableProjectsLikeExactProjection() {
+        final BubbleLayoutEngine exact = new BubbleLayoutEngine(CELLS);
+        exact.setViewport(400, 500, 24);
+        exact.setLattice(hexCube, CELLS);
+        engine.setProjectionTable(new FisheyeTable());
+
+        for (float hexR = 60; hexR <= 180; hexR += 3) {
+            for (int scrollX = -150; scrollX <= 150; scrollX += 7) {
+                for (int scrollY = -150; scrollY <= 150; scrollY += 5) {
+                    exact.refresh(200, hexR, scrollX, scrollY);
+                    engine.refresh(200, hexR, scrollX, scrollY);
+
+                    for (int i = 0; i < engine.getCount(); i++) {
+                        assertEquals(exact.getX(i), engine.getX(i), 0f);
+                        assertEquals(exact.getY(i), engine.getY(i), 0f);
+                        assertEquals(exact.getScale(i), engine.getScale(i), 1e-4f);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void moveStartsAtPreviousCellAndEndsAtOwnCell() {
+        engine.refresh(200, 86, 0, 0);
+        final float fromX = engine.getX(5);
+        final float fromY = engine.getY(5);
+        final float toX = engine.getX(2);
+        final float toY = engine.getY(2);
+        final int[] from = new int[CELLS];
+        Arrays.fill(from, -1);
+        from[2] = 5;
+
+        engine.startMove(from, CELLS);
+        engine.refresh(200, 86, 0, 0);
+        assertEquals(fromX, engine.getX(2), 1e-3f);
+        assertEquals(fromY, engine.getY(2), 1e-3f);
+
+        engine.setMoveFraction(1);
+        engine.refresh(200, 86, 0, 0);
+        assertEquals(toX, engine.getX(2), 0f);
+        assertEquals(toY, engine.getY(2), 0f);
+    }
+
+    /**
+     * The projection of a single cell as {@code BubbleCloudView.iconMapRefresh} computed it
+     * before the engine existed, with its {@code ArrayList}s of boxed points.
+     *
+     * @param out receives x, y and scale
+     */
+    private static void legacyProject(int q, int r, float sphereR, float hexR, float scrollX, float scrollY,
+                                      int screenW, int screenH, int edgeSize, float[] out) {
+        final float orthoX = (r + q / 2f) * hexR + scrollX;
+        final float orthoY = (float) (Math.sqrt(3) / 2 * q * hexR + scrollY);
+
+        final float polarR = (float) Math.sqrt(Math.pow(orthoX, 2) + Math.pow(orthoY, 2));
+        final float polarRad = (float) Math.atan2(orthoY, orthoX);
+
+        final float rad = polarR / sphereR;
+        final float sphereRadius;
+        final float deepth;
+        if (rad < Math.PI / 2) {
+            sphereRadius = polarR * swing((float) (rad / (Math.PI / 2)), 1.5f, -0.5f, 1f);
+            deepth = easeInOutCubic((float) (rad / (Math.PI / 2)), 1f, -0.5f, 1f);
+        } else {
+            sphereRadius = polarR;
+            deepth = easeInOutCubic(1f, 1f, -0.5f, 1f);
+        }
+
+        float x = (float) (sphereRadius * Math.cos(polarRad));
+        float y = (float) (sphereRadius * Math.sin(polarRad));
+        x = Math.round(x * 10) / 10;
+        y = (float) (Math.round(y * 10) / 10 * 1.14);
+
+        final float edge = edgeSize;
+        final float scale;
+        if (Math.abs(x) > screenW / 2 - edge || Math.abs(y) > screenH / 2 - edge) {
+            scale = deepth * 0.4f;
+        } else if (Math.abs(x) > screenW / 2 - 2 * edge && Math.abs(y) > screenH / 2 - 2 * edge) {
+            scale = Math.min(deepth * easeInOutSine(screenW / 2 - Math.abs(x) - edge, 0.4f, 0.6f, edge),
+                    deepth * easeInOutSine(screenH / 2 - Math.abs(y) - edge, 0.3f, 0.7f, edge));
+        } else if (Math.abs(x) > screenW / 2 - 2 * edge) {
+            scale = deepth * easeOutSine(screenW / 2 - Math.abs(x) - edge, 0.4f, 0.6f, edge);
+        } else if (Math.abs(y) > screenH / 2 - 2 * edge) {
+            scale = deepth * easeOutSine(screenH / 2 - Math.abs(y) - edge, 0.4f, 0.6f, edge);
+        } else {
+            scale = deepth;
+        }
+
+        if (x < -screenW / 2 + 2 * edge) {
+            x += easeInSine(screenW / 2 - Math.abs(x) - 2 * edge, 0, 6f, 2 * edge);
+        } else if (x > screenW / 2 - 2 * edge) {
+            x += easeInSine(screenW / 2 - Math.abs(x) - 2 * edge, 0, -6f, 2 * edge);
+        }
+        if (y < -screenH / 2 + 2 * edge) {
+            y += easeInSine(screenH / 2 - Math.abs(y) - 2 * edge, 0, 8f, 2 * edge);
+        } else if (y > screenH / 2 - 2 * edge) {
+            y += easeInSine(screenH / 2 - Math.abs(y) - 2 * edge, 0, -8f, 2 * edge);
+        }
+        out[0] = x;
+        out[1] = y;
+        out[2] = scale;
+    }
+
+    private static float easeInSine(float t, float b, float c, float d) {
+        return (float) (-c * Math.cos(t / d * (Math.PI / 2)) + c + b);
+    }
+
+    private static float swing(float t, float b, float c, float d) {
+        return -c * (t /= d) * (t - 2) + b;
+    }
+
+    private static float easeInOutCubic(float t, float b, float c, float d) {
+        if ((t /= d / 2) < 1)
+            return c / 2 * t * t * t + b;
+        return c / 2 * ((t -= 2) * t * t + 2) + b;
+    }
+
+    private static float easeInOutSine(float t, float b, float c, float d) {
+        return (float) (-c / 2 * (Math.cos(Math.PI * t / d) - 1) + b);
+    }
+
+    private static float easeOutSine(float t, float b, float c, float d) {
+        return (float) (c * Math.sin(t / d * (Math.PI / 2)) + b);
+    }
+}
@@ -0,0 +1,80 @@
+package com.dodola.bubblecloud;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HexGridTest {
+
+    private static final int RINGS = 12;
+
+    @Test
+    public void followsThePreviousCellOrder() {
+        // the nested search the view used to build its lattice with
+        final int[] cube = new int[3];
+        int index = 0;
+        for (int i = 0; i <= RINGS; i++)
+            for (int j = -i; j <= i; j++)
+                for (int k = -i; k <= i; k++)
+                    for (int l = -i; l <= i; l++)
+                        if (Math.abs(j) + Math.abs(k) + Math.abs(l) == i * 2 && j + k + l == 0) {
+                            HexGrid.cubeAt(index, cube);
+                            assertEquals("q of " + index, j, cube[0]);
+                            assertEquals("r of " + index, k, cube[1]);
+                            assertEquals("s of " + index, l, cube[2]);
+                            index++;
+                        }
+        assertEquals(HexGrid.cellCount(RINGS), index);
+    }
+
+    @Test
+    public void cellsAreUniqueAndOnTheirRing() {
+        final int[] cube = new int[3];
+        final Set<Long> seen = new HashSet<Long>();
+        for (int i = 0; i < HexGrid.cellCount(RINGS); i++) {
+            HexGrid.cubeAt(i, cube);
+            assertEquals(0, cube[0] + cube[1] + cube[2]);
+            final int distance = Math.max(Math.abs(cube[0]), Math.max(Math.abs(cube[1]), Math.abs(cube[2])));
+            assertEquals(HexGrid.ringOf(i), distance);
+            assertTrue("duplicate cell at " + i, seen.add(((long) cube[0] << 32) ^ (cube[1] & 0xffffffffL)));
+        }
+    }
+
+    @Test
+    public void ringOfAtRingBoundaries() {
+        assertEquals(0, HexGrid.ringOf(0));
+        for (int ring = 1; ring <= 1000; ring++) {
+            final int start = HexGrid.ringStart(ring);
+            assertEquals(ring - 1, HexGrid.ringOf(start - 1));
+            assertEquals(ring, HexGrid.ringOf(start));
+            assertEquals(ring, HexGrid.ringOf(start + 6 * ring - 1));
+        }
+    }
+
+    @Test
+    public void radiusForCoversTheCount() {
+        assertEquals(0, HexGrid.radiusFor(0));
+        assertEquals(0, HexGrid.radiusFor(1));
+        assertEquals(1, HexGrid.radiusFor(2));
+        assertEquals(1, HexGrid.radiusFor(7));
+        assertEquals(2, HexGrid.radiusFor(8));
+        for (int count = 1; count <= 5000; count++) {
+            final int radius = HexGrid.radiusFor(count);
+            assertTrue(HexGrid.cellCount(radius) >= count);
+            assertTrue(radius == 0 || HexGrid.cellCount(radius - 1) < count);
+        }
+    }
+
+    @Test
+    public void smallerLatticeIsAPrefix() {
+        final int[] small = HexGrid.lattice(2).clone();
+        final int[] large = HexGrid.lattice(5);
+        for (int i = 0; i < HexGrid.cellCount(2) * 3; i++) {
+            assertEquals(small[i], large[i]);
+        }
+    }
+}
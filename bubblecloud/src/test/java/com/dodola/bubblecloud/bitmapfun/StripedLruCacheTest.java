@@ -0,0 +1,69 @@
+package com.dodola.bubblecloud.bitmapfun;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StripedLruCacheTest {
+
+    @Test
+    public void evictsOldestUnreferencedEntry() {
+        final StripedLruCache<String, String> cache = new StripedLruCache<String, String>(3, 1);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        cache.get("a");
+
+        cache.put("d", "D");
+
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+        assertEquals("D", cache.get("d"));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void reportsEvictionsAndReplacements() {
+        final List<String> removed = new ArrayList<String>();
+        final StripedLruCache<String, String> cache = new StripedLruCache<String, String>(2, 1) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, String oldValue, String newValue) {
+                removed.add((evicted ? "evicted " : "replaced ") + key + "=" + oldValue);
+            }
+        };
+        cache.put("a", "A");
+        cache.put("a", "A2");
+        cache.put("b", "B");
+        cache.put("c", "C");
+
+        assertEquals(2, removed.size());
+        assertEquals("replaced a=A", removed.get(0));
+        assertEquals("evicted a=A2", removed.get(1));
+    }
+
+    @Test
+    public void stripesShareTheMaximumSize() {
+        final StripedLruCache<Integer, String> cache = new StripedLruCache<Integer, String>(10, 3) {
+            @Override
+            protected int sizeOf(Integer key, String value) {
+                return value.length();
+            }
+        };
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "xx");
+        }
+
+        assertEquals(10, cache.maxSize());
+        assertTrue(cache.size() <= 10);
+
+        cache.evictAll();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(99));
+    }
+}
@@ -0,0 +1,61 @@
+package com.dodola.bubblecloud.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityExecutorTest {
+
+    @Test
+    public void reprioritizeReordersQueuedWork() throws InterruptedException {
+        final PriorityExecutor executor = new PriorityExecutor(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(4);
+        final List<String> order = new ArrayList<String>();
+        // keep the only thread busy so everything else stays queued
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 0);
+        for (String key : new String[]{"a", "b", "c"}) {
+            executor.execute(record(order, key, done), 10, key);
+        }
+        executor.execute(record(order, "unkeyed", done), 20);
+
+        executor.reprioritize(new PriorityExecutor.Prioritizer() {
+            @Override
+            public int getPriority(Object key, int priority) {
+                return "c".equals(key) ? 1 : "a".equals(key) ? 30 : priority;
+            }
+        });
+        gate.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("c", "b", "unkeyed", "a"), order);
+    }
+
+    private static Runnable record(final List<String> order, final String name, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized (order) {
+                    order.add(name);
+                }
+                done.countDown();
+            }
+        };
+    }
+}